@@ -0,0 +1,68 @@
+package com.procalc.bench;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Compares a JMH JSON result file against a saved baseline and exits non-zero
+ * when any throughput score dropped by more than the given percentage.
+ * Usage: BaselineCompare baseline.json current.json [tolerancePercent]
+ */
+public final class BaselineCompare {
+    private BaselineCompare() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("usage: BaselineCompare <baseline.json> <current.json> [tolerancePercent]");
+            System.exit(2);
+        }
+        File baselineFile = new File(args[0]);
+        if (!baselineFile.exists()) {
+            System.err.println("No baseline at " + baselineFile + "; copy a jmh-result.json there first.");
+            System.exit(2);
+        }
+        double tolerance = args.length > 2 ? Double.parseDouble(args[2]) : 10;
+        Map<String, Double> baseline = scores(baselineFile);
+        Map<String, Double> current = scores(new File(args[1]));
+
+        int regressions = 0;
+        for (var e : current.entrySet()) {
+            Double before = baseline.get(e.getKey());
+            if (before == null || before == 0) {
+                System.out.printf("%-70s %14.3f   (new)%n", e.getKey(), e.getValue());
+                continue;
+            }
+            double change = (e.getValue() - before) / before * 100;
+            boolean regressed = change < -tolerance;
+            if (regressed)
+                regressions++;
+            System.out.printf("%-70s %14.3f %+8.1f%%%s%n", e.getKey(), e.getValue(), change,
+                    regressed ? "  REGRESSION" : "");
+        }
+        if (regressions > 0) {
+            System.out.println(regressions + " benchmark(s) regressed by more than " + tolerance + "%");
+            System.exit(1);
+        }
+    }
+
+    /** Benchmark name plus params mapped to its primary score (higher is better). */
+    private static Map<String, Double> scores(File file) throws Exception {
+        Map<String, Double> out = new LinkedHashMap<>();
+        for (JsonNode run : new ObjectMapper().readTree(file)) {
+            StringBuilder key = new StringBuilder(run.path("benchmark").asText());
+            run.path("params").fields().forEachRemaining(p -> key.append(' ').append(p.getKey()).append('=')
+                    .append(p.getValue().asText()));
+            double score = run.path("primaryMetric").path("score").asDouble();
+            // Time-per-op modes: lower is better, so compare the reciprocal
+            if (!"thrpt".equals(run.path("mode").asText()) && score != 0)
+                score = 1 / score;
+            out.put(key.toString(), score);
+        }
+        return out;
+    }
+}
@@ -0,0 +1,77 @@
+package com.procalc.bench;
+
+import com.procalc.engine.CalculatorEngine;
+import com.procalc.engine.CompiledExpression;
+import org.openjdk.jmh.annotations.*;
+
+import java.math.RoundingMode;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Each pipeline stage measured on its own, with the earlier stages' output
+ * prepared in setup. Run with {@code -prof gc} for allocation rates.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EngineBenchmark {
+
+    @Param({"short", "scientific", "nested", "long", "literals"})
+    public String shape;
+
+    private CalculatorEngine engine;
+    private String expression;
+    private List<String> tokens;
+    private List<String> rpn;
+    private CompiledExpression compiled;
+
+    @Setup
+    public void setup() {
+        engine = new CalculatorEngine(28, RoundingMode.HALF_UP);
+        expression = Expressions.of(shape);
+        tokens = engine.tokenize(expression);
+        rpn = engine.toRPN(tokens);
+        compiled = engine.compile(expression);
+        if (!compiled.evaluate().ok)
+            throw new IllegalStateException("Benchmark expression does not evaluate: " + expression);
+    }
+
+    @Benchmark
+    public Object tokenize() {
+        return engine.tokenize(expression);
+    }
+
+    @Benchmark
+    public Object lex() {
+        return engine.lex(expression);
+    }
+
+    @Benchmark
+    public Object compile() {
+        return engine.compile(expression);
+    }
+
+    @Benchmark
+    public Object toRPN() {
+        return engine.toRPN(tokens);
+    }
+
+    @Benchmark
+    public Object evalRPN() {
+        return engine.evalRPN(rpn);
+    }
+
+    @Benchmark
+    public Object evaluateExpression() {
+        return engine.evaluateExpression(expression);
+    }
+
+    @Benchmark
+    public Object evaluateCompiled() {
+        return compiled.evaluate();
+    }
+}
@@ -0,0 +1,39 @@
+package com.procalc.bench;
+
+/**
+ * Expression shapes shared by the benchmarks, from a short keypad entry to long
+ * and deeply nested generated input, plus one made of common literals and constants.
+ */
+final class Expressions {
+    private Expressions() {
+    }
+
+    static String of(String shape) {
+        return switch (shape) {
+            case "short" -> "2 + 3 * 4";
+            case "scientific" -> "sin(pi/6) + ln(e) * 2^3 - sqrt(16) / 4 + 5! - abs(0-3) * 50%";
+            case "nested" -> nested(40);
+            case "long" -> longChain(400);
+            case "literals" -> "0.5 * 100 + 2.5 * 1000 - 12.75 / 4 + 10 * 0.25 + pi * e - 99 % + 1.5 * pi";
+            default -> throw new IllegalArgumentException("Unknown shape: " + shape);
+        };
+    }
+
+    /** ((((1 + 1) * 2 + 2) * 3 + 3) ... nested {@code depth} levels deep. */
+    static String nested(int depth) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("(".repeat(depth)).append("1");
+        for (int i = 1; i <= depth; i++)
+            sb.append(" + ").append(i % 10).append(") * 1.").append(i % 7);
+        return sb.toString();
+    }
+
+    /** 1 + 2.5 * 3 - 4 / 5 + ... with {@code terms} operands. */
+    static String longChain(int terms) {
+        String ops = "+*-/";
+        StringBuilder sb = new StringBuilder("1");
+        for (int i = 1; i < terms; i++)
+            sb.append(' ').append(ops.charAt(i % 4)).append(' ').append(i % 9 + 1).append(i % 3 == 0 ? ".5" : "");
+        return sb.toString();
+    }
+}
@@ -0,0 +1,57 @@
+package com.procalc.bench;
+
+import com.procalc.engine.CalculatorEngine;
+import com.procalc.engine.CompiledExpression;
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Repeated-formula workloads, as sent to /batch and /evaluate/vector: one
+ * expression in {@code x} compiled once and evaluated for many values, with and
+ * without the optimizer pass.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OptimizerBenchmark {
+
+    @Param({"trig", "ratio", "constants", "poly"})
+    public String formula;
+
+    private CompiledExpression raw;
+    private CompiledExpression optimized;
+    private final BigDecimal[] bindings = { new BigDecimal("0.7") };
+
+    @Setup
+    public void setup() {
+        CalculatorEngine engine = new CalculatorEngine(28, RoundingMode.HALF_UP);
+        String expression = switch (formula) {
+            case "trig" -> "sin(x)*sin(x) + cos(x)*cos(x)";
+            case "ratio" -> "(x+1)/(x+1)^2 + (x+1)*2";
+            case "constants" -> "2*pi*x + pi*x^2 + sqrt(2)*ln(10)";
+            case "poly" -> "(x^2+1)*(x^2+1) - (x^2+1)";
+            default -> throw new IllegalArgumentException("Unknown formula: " + formula);
+        };
+        raw = engine.compile(expression, List.of("x"));
+        optimized = engine.optimize(raw, Long.MAX_VALUE);
+        if (raw.evaluate(bindings).value.compareTo(optimized.evaluate(bindings).value) != 0)
+            throw new IllegalStateException("Optimized program disagrees: " + expression);
+    }
+
+    @Benchmark
+    public Object unoptimized() {
+        return raw.evaluate(bindings);
+    }
+
+    @Benchmark
+    public Object optimized() {
+        return optimized.evaluate(bindings);
+    }
+}
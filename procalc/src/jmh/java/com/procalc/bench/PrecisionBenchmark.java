@@ -0,0 +1,56 @@
+package com.procalc.bench;
+
+import com.procalc.engine.CalculatorEngine;
+import com.procalc.engine.CompiledExpression;
+import org.openjdk.jmh.annotations.*;
+
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of one request's work as the requested precision grows: compiling
+ * with the context's shared engine, and evaluating arithmetic and elementary
+ * functions (unoptimized, so nothing is folded away).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PrecisionBenchmark {
+
+    @Param({"12", "28", "50", "100", "500"})
+    public int precision;
+
+    @Param({"arithmetic", "functions"})
+    public String formula;
+
+    private MathContext mathContext;
+    private String expression;
+    private CompiledExpression compiled;
+
+    @Setup
+    public void setup() {
+        mathContext = new MathContext(precision, RoundingMode.HALF_EVEN);
+        expression = switch (formula) {
+            case "arithmetic" -> "(1/3 + 2/7) * 1.0625 - 22/7 + 12.5%";
+            case "functions" -> "sqrt(2) * ln(10) + sin(1) - pi * e^0.5";
+            default -> throw new IllegalArgumentException("Unknown formula: " + formula);
+        };
+        compiled = CalculatorEngine.of(mathContext).compile(expression);
+        if (!compiled.evaluate().ok)
+            throw new IllegalStateException("Benchmark expression does not evaluate: " + expression);
+    }
+
+    @Benchmark
+    public Object compile() {
+        return CalculatorEngine.of(mathContext).compile(expression);
+    }
+
+    @Benchmark
+    public Object evaluate() {
+        return compiled.evaluate();
+    }
+}
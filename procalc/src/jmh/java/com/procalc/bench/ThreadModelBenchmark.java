@@ -0,0 +1,83 @@
+package com.procalc.bench;
+
+import com.procalc.dto.EvaluateResponse;
+import com.procalc.engine.CalculatorEngine;
+import com.procalc.service.ComputeService;
+import com.procalc.service.EngineService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A burst of concurrent requests, one in {@link #HEAVY_EVERY} of them heavy,
+ * served by each thread model:
+ * <ul>
+ * <li>{@code inline}: 200 platform request threads evaluating themselves (the
+ * original Tomcat model),</li>
+ * <li>{@code pool}: 200 platform request threads waiting on {@link ComputeService},</li>
+ * <li>{@code virtual}: one virtual thread per request waiting on {@link ComputeService}
+ * (needs Java 21; fails setup on older runtimes).</li>
+ * </ul>
+ * Expressions are unique per request and the result cache is off, so every
+ * request really evaluates.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ThreadModelBenchmark {
+    private static final int REQUEST_THREADS = 200;
+    private static final int BURST = 400;
+    private static final int HEAVY_EVERY = 20;
+
+    @Param({"inline", "pool", "virtual"})
+    public String model;
+
+    private EngineService engine;
+    private ComputeService compute;
+    private ExecutorService requests;
+    private final AtomicLong counter = new AtomicLong();
+
+    @Setup
+    public void setup() throws Exception {
+        engine = new EngineService(0, 0, 0, new SimpleMeterRegistry());
+        compute = new ComputeService(engine, new SimpleMeterRegistry(), 0, 10_000, 60_000, 60_000, 32);
+        requests = model.equals("virtual")
+                ? (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null)
+                : Executors.newFixedThreadPool(REQUEST_THREADS);
+    }
+
+    @TearDown
+    public void tearDown() {
+        requests.shutdownNow();
+        compute.shutdown();
+    }
+
+    @Benchmark
+    public int burst() throws Exception {
+        List<Future<EvaluateResponse>> futures = new ArrayList<>(BURST);
+        for (int i = 0; i < BURST; i++) {
+            long k = counter.incrementAndGet();
+            String expression = i % HEAVY_EVERY == 0
+                    ? "sin(" + k + ")*cos(" + k + ")*ln(" + k + "+2)*exp(" + (k % 50) + "/7)*tan(" + k + "+1)"
+                    : k + "*2+1";
+            futures.add(requests.submit(() -> model.equals("inline")
+                    ? engine.evaluate(expression, CalculatorEngine.Mode.BIGDECIMAL)
+                    : compute.evaluate(expression, CalculatorEngine.Mode.BIGDECIMAL)));
+        }
+        int ok = 0;
+        for (Future<EvaluateResponse> f : futures)
+            if ("OK".equals(f.get().getStatus()))
+                ok++;
+        return ok;
+    }
+}
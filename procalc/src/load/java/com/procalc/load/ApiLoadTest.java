@@ -0,0 +1,193 @@
+package com.procalc.load;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+
+/**
+ * Latency objectives for the REST API under a production-like mix of
+ * /evaluate, /preview, /history and /memory traffic, offered to the whole
+ * application in process through MockMvc, with no network involved.
+ *
+ * Load is open-loop: request k is due at {@code start + k / rate} whatever
+ * happened to earlier ones, and its latency is measured from that due time.
+ * When the server falls behind, the queueing delay therefore shows in the
+ * percentiles instead of quietly lowering the offered rate. Requests during the
+ * warm-up are sent but not recorded. The test fails when a percentile exceeds
+ * its objective in {@code load-slo.properties}, when throughput falls short of
+ * the offered rate, or when too many requests fail; the results are written to
+ * {@code target/load-result.json}.
+ */
+@SpringBootTest
+@AutoConfigureMockMvc
+class ApiLoadTest {
+    /** Expressions clients send repeatedly, so most evaluations hit the result cache as in production. */
+    private static final String[] EXPRESSIONS = {
+            "2 + 3 * 4", "12.5% * 240", "sqrt(2) * 10", "(1 + 0.05)^12", "sin(pi/6) + cos(pi/3)",
+            "1/3 + 1/6", "pow(2, 32) - 1", "ln(10) / ln(2)", "5! / 3!", "abs(-7.25) * 4",
+            "(17 - 4) * (3 + 8) / 2", "1000 * (1 + 0.07/12)^(12*30)", "sqrt(3^2 + 4^2)", "log(1000) + 2",
+    };
+    /** Share of evaluations with an expression no one sent before, which miss the cache. */
+    private static final double UNIQUE_SHARE = 0.2;
+
+    @Autowired
+    private MockMvc mvc;
+
+    @Test
+    void meetsLatencyObjectives() throws Exception {
+        LoadProfile profile = LoadProfile.load("load-slo.properties");
+        Run run = run(profile);
+        Map<String, Latencies> results = run.latencies();
+        Latencies all = new Latencies();
+        results.values().forEach(all::addAll);
+        results.put("all", all);
+        double throughput = all.count() / run.seconds();
+
+        System.out.printf("%n%-10s %8s %7s %9s %9s %9s%n", "kind", "count", "errors", "p50 ms", "p99 ms", "p999 ms");
+        Map<String, Object> json = new LinkedHashMap<>();
+        for (var e : results.entrySet()) {
+            Latencies l = e.getValue();
+            System.out.printf("%-10s %8d %7d %9.3f %9.3f %9.3f%n", e.getKey(), l.count(), l.errors(),
+                    l.percentileMillis(0.50), l.percentileMillis(0.99), l.percentileMillis(0.999));
+            Map<String, Object> kind = new LinkedHashMap<>();
+            kind.put("count", l.count());
+            kind.put("errors", l.errors());
+            kind.put("p50Ms", l.percentileMillis(0.50));
+            kind.put("p99Ms", l.percentileMillis(0.99));
+            kind.put("p999Ms", l.percentileMillis(0.999));
+            json.put(e.getKey(), kind);
+        }
+        System.out.printf("throughput %.1f req/s (offered %.1f)%n%n", throughput, profile.rate);
+        json.put("throughput", throughput);
+        json.put("offeredRate", profile.rate);
+        new File("target").mkdirs();
+        new ObjectMapper().writerWithDefaultPrettyPrinter().writeValue(new File("target/load-result.json"), json);
+
+        List<String> breaches = new ArrayList<>();
+        for (var e : results.entrySet()) {
+            for (String p : new String[] { "p50", "p99", "p999" }) {
+                Double limit = profile.slo(e.getKey(), p);
+                double q = p.equals("p50") ? 0.50 : p.equals("p99") ? 0.99 : 0.999;
+                double actual = e.getValue().percentileMillis(q);
+                if (limit != null && actual > limit)
+                    breaches.add(String.format("%s %s %.3f ms > %.3f ms", e.getKey(), p, actual, limit));
+            }
+        }
+        if (throughput < profile.rate * profile.minThroughputRatio())
+            breaches.add(String.format("throughput %.1f req/s < %.0f%% of %.1f offered", throughput,
+                    profile.minThroughputRatio() * 100, profile.rate));
+        if (all.errors() > all.count() * profile.maxErrorRatio())
+            breaches.add(all.errors() + " of " + all.count() + " requests failed");
+        assertTrue(breaches.isEmpty(), "Latency objectives missed:\n" + String.join("\n", breaches));
+    }
+
+    /** Latencies recorded after the warm-up, and the seconds from the end of the warm-up until the last answer. */
+    private record Run(Map<String, Latencies> latencies, double seconds) {
+    }
+
+    private Run run(LoadProfile profile) throws Exception {
+        long interval = (long) (1e9 / profile.rate);
+        long start = System.nanoTime() + 50_000_000L;
+        long measureFrom = start + profile.warmupSeconds * 1_000_000_000L;
+        long end = measureFrom + profile.durationSeconds * 1_000_000_000L;
+        AtomicLong sequence = new AtomicLong();
+        AtomicIntegerArray keystrokes = new AtomicIntegerArray(profile.clients);
+        int total = profile.mix.values().stream().mapToInt(Integer::intValue).sum();
+
+        ExecutorService pool = Executors.newFixedThreadPool(profile.workers);
+        List<Future<Map<String, Latencies>>> futures = new ArrayList<>();
+        for (int w = 0; w < profile.workers; w++) {
+            SplittableRandom random = new SplittableRandom(w);
+            futures.add(pool.submit(() -> {
+                Map<String, Latencies> mine = new LinkedHashMap<>();
+                for (String kind : LoadProfile.KINDS)
+                    mine.put(kind, new Latencies());
+                while (true) {
+                    long k = sequence.getAndIncrement();
+                    long due = start + k * interval;
+                    if (due >= end)
+                        return mine;
+                    long wait = due - System.nanoTime();
+                    if (wait > 0)
+                        LockSupport.parkNanos(wait);
+                    String kind = pick(profile, random.nextInt(total));
+                    int client = random.nextInt(profile.clients);
+                    int status = mvc.perform(request(kind, client, k, random, keystrokes)
+                                    .header("X-Client-Id", "load-" + client))
+                            .andReturn().getResponse().getStatus();
+                    long latency = System.nanoTime() - due;
+                    if (due >= measureFrom)
+                        mine.get(kind).record(latency, status == 200);
+                }
+            }));
+        }
+        Map<String, Latencies> merged = new LinkedHashMap<>();
+        for (String kind : LoadProfile.KINDS)
+            merged.put(kind, new Latencies());
+        try {
+            for (Future<Map<String, Latencies>> f : futures)
+                f.get().forEach((kind, l) -> merged.get(kind).addAll(l));
+        } finally {
+            pool.shutdownNow();
+        }
+        // a worker stops only after answering its last request, so a backlog lengthens the run
+        return new Run(merged, (System.nanoTime() - measureFrom) / 1e9);
+    }
+
+    private static String pick(LoadProfile profile, int ticket) {
+        for (var e : profile.mix.entrySet()) {
+            ticket -= e.getValue();
+            if (ticket < 0)
+                return e.getKey();
+        }
+        throw new IllegalStateException("Empty request mix");
+    }
+
+    private static MockHttpServletRequestBuilder request(String kind, int client, long k, SplittableRandom random,
+            AtomicIntegerArray keystrokes) {
+        return switch (kind) {
+            case "evaluate" -> {
+                String expression = random.nextDouble() < UNIQUE_SHARE
+                        ? k + " * 1.25 + sqrt(" + k + ")"
+                        : EXPRESSIONS[random.nextInt(EXPRESSIONS.length)];
+                yield json(post("/api/v1/evaluate"), "{\"expression\":\"" + expression + "\"}");
+            }
+            case "preview" -> {
+                // each client types its expressions one character per preview
+                int n = keystrokes.getAndIncrement(client);
+                String target = EXPRESSIONS[(n / 32 + client) % EXPRESSIONS.length];
+                String typed = target.substring(0, n % 32 % target.length() + 1);
+                yield json(post("/api/v1/preview"), "{\"expression\":\"" + typed + "\"}");
+            }
+            case "history" -> get("/api/v1/history").param("limit", "50");
+            case "memory" -> json(post("/api/v1/memory"), "{\"op\":\"M+\",\"value\":\"1.5\"}");
+            default -> throw new IllegalArgumentException("Unknown request kind: " + kind);
+        };
+    }
+
+    private static MockHttpServletRequestBuilder json(MockHttpServletRequestBuilder request, String body) {
+        return request.contentType(MediaType.APPLICATION_JSON).content(body);
+    }
+}
@@ -0,0 +1,48 @@
+package com.procalc.load;
+
+import java.util.Arrays;
+
+/**
+ * Every latency recorded for one request kind, kept whole so percentiles are
+ * exact. Not thread-safe: each worker records into its own instance and the
+ * instances are merged at the end.
+ */
+final class Latencies {
+    private long[] nanos = new long[1024];
+    private int count;
+    private int errors;
+
+    void record(long latencyNanos, boolean ok) {
+        if (count == nanos.length)
+            nanos = Arrays.copyOf(nanos, count * 2);
+        nanos[count++] = latencyNanos;
+        if (!ok)
+            errors++;
+    }
+
+    void addAll(Latencies other) {
+        if (count + other.count > nanos.length)
+            nanos = Arrays.copyOf(nanos, Math.max(count + other.count, nanos.length * 2));
+        System.arraycopy(other.nanos, 0, nanos, count, other.count);
+        count += other.count;
+        errors += other.errors;
+    }
+
+    int count() {
+        return count;
+    }
+
+    int errors() {
+        return errors;
+    }
+
+    /** The latency at quantile {@code q} (0..1) in milliseconds, by the nearest-rank method. */
+    double percentileMillis(double q) {
+        if (count == 0)
+            return 0;
+        long[] sorted = Arrays.copyOf(nanos, count);
+        Arrays.sort(sorted);
+        int rank = (int) Math.ceil(q * count);
+        return sorted[Math.max(0, Math.min(count, rank) - 1)] / 1e6;
+    }
+}
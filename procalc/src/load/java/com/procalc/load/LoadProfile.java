@@ -0,0 +1,67 @@
+package com.procalc.load;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * The traffic to offer and the latency objectives it must meet, read from
+ * {@code load-slo.properties} on the test classpath. Any key can be overridden
+ * with a system property of the same name, e.g. {@code -Dload.rate=800}.
+ */
+final class LoadProfile {
+    /** Request kinds in the order they are reported. */
+    static final String[] KINDS = { "evaluate", "preview", "history", "memory" };
+
+    final double rate;
+    final int durationSeconds;
+    final int warmupSeconds;
+    final int workers;
+    final int clients;
+    /** Share of requests per kind, as weights. */
+    final Map<String, Integer> mix = new LinkedHashMap<>();
+    private final Properties props;
+
+    private LoadProfile(Properties props) {
+        this.props = props;
+        this.rate = Double.parseDouble(get("load.rate"));
+        this.durationSeconds = Integer.parseInt(get("load.duration-seconds"));
+        this.warmupSeconds = Integer.parseInt(get("load.warmup-seconds"));
+        this.workers = Integer.parseInt(get("load.workers"));
+        this.clients = Integer.parseInt(get("load.clients"));
+        for (String kind : KINDS)
+            mix.put(kind, Integer.parseInt(get("load.mix." + kind)));
+    }
+
+    static LoadProfile load(String resource) throws IOException {
+        Properties props = new Properties();
+        try (InputStream in = LoadProfile.class.getClassLoader().getResourceAsStream(resource)) {
+            if (in == null)
+                throw new IllegalStateException("No " + resource + " on the test classpath");
+            props.load(in);
+        }
+        return new LoadProfile(props);
+    }
+
+    /** Latency objective in milliseconds, e.g. {@code slo("evaluate", "p99")}, or null if none is set. */
+    Double slo(String kind, String percentile) {
+        String v = get("slo." + kind + "." + percentile + "-ms");
+        return v == null ? null : Double.valueOf(v);
+    }
+
+    /** Lowest acceptable completed requests per second, as a fraction of the offered rate. */
+    double minThroughputRatio() {
+        return Double.parseDouble(get("slo.min-throughput-ratio"));
+    }
+
+    /** Highest acceptable share of requests that did not answer 200. */
+    double maxErrorRatio() {
+        return Double.parseDouble(get("slo.max-error-ratio"));
+    }
+
+    private String get(String key) {
+        return System.getProperty(key, props.getProperty(key));
+    }
+}
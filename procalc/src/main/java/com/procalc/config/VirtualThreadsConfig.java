@@ -0,0 +1,38 @@
+package com.procalc.config;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Serves requests on virtual threads when the runtime has them (Java 21+).
+ * Request threads then mostly wait on the compute pool, which costs nothing on a
+ * virtual thread. The executor is looked up reflectively so the same build still
+ * runs on Java 17, where Tomcat keeps its platform thread pool.
+ */
+@Configuration
+@ConditionalOnProperty(name = "procalc.virtual-threads", havingValue = "true", matchIfMissing = true)
+public class VirtualThreadsConfig {
+
+    @Bean
+    public TomcatProtocolHandlerCustomizer<?> virtualThreadExecutor() {
+        ExecutorService executor = newVirtualThreadPerTaskExecutor();
+        return handler -> {
+            if (executor != null)
+                handler.setExecutor(executor);
+        };
+    }
+
+    /** {@code Executors.newVirtualThreadPerTaskExecutor()}, or null before Java 21. */
+    static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException ex) {
+            return null;
+        }
+    }
+}
@@ -1,65 +1,234 @@
 package com.procalc.controller;
 
+import com.procalc.dto.BatchEvaluateRequest;
 import com.procalc.dto.EvaluateRequest;
 import com.procalc.dto.EvaluateResponse;
+import com.procalc.dto.PlotRequest;
+import com.procalc.dto.ResponseShape;
+import com.procalc.dto.ValidationResponse;
+import com.procalc.dto.VectorEvaluateRequest;
+import com.procalc.engine.CalculatorEngine;
+import com.procalc.service.BatchService;
+import com.procalc.service.ComputeService;
 import com.procalc.service.EngineService;
 import com.procalc.service.HistoryService;
 import com.procalc.service.MemoryService;
+import com.procalc.service.PlotService;
+import com.procalc.service.PreviewService;
+import com.procalc.service.StreamService;
+import com.procalc.service.WireService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
 import java.util.Map;
 
 @RestController
 @RequestMapping("/api/v1")
 public class CalculatorController {
+    static final String NEXT_CURSOR = "X-Next-Cursor";
+    static final String PLOT_POINTS = "X-Plot-Points";
 
     private final EngineService engineService;
+    private final ComputeService computeService;
+    private final PreviewService previewService;
     private final HistoryService historyService;
     private final MemoryService memoryService;
+    private final BatchService batchService;
+    private final StreamService streamService;
+    private final PlotService plotService;
+    private final WireService wireService;
+    private final DistributionSummary batchSize;
+    private final Counter streamLines;
+    private final Counter wireFrames;
+    private final Counter invalidInputs;
 
     public CalculatorController(EngineService engineService,
+            ComputeService computeService,
+            PreviewService previewService,
             HistoryService historyService,
-            MemoryService memoryService) {
+            MemoryService memoryService,
+            BatchService batchService,
+            StreamService streamService,
+            PlotService plotService,
+            WireService wireService,
+            MeterRegistry registry) {
         this.engineService = engineService;
+        this.computeService = computeService;
+        this.previewService = previewService;
         this.historyService = historyService;
         this.memoryService = memoryService;
+        this.batchService = batchService;
+        this.streamService = streamService;
+        this.plotService = plotService;
+        this.wireService = wireService;
+        this.batchSize = DistributionSummary.builder("procalc.batch.size")
+                .description("Items per batch or vector request")
+                .publishPercentileHistogram()
+                .register(registry);
+        this.streamLines = Counter.builder("procalc.stream.lines")
+                .description("Lines evaluated by the streaming endpoint")
+                .register(registry);
+        this.wireFrames = Counter.builder("procalc.wire.frames")
+                .description("Frames answered by the binary endpoint")
+                .register(registry);
+        this.invalidInputs = Counter.builder("procalc.validate.invalid")
+                .description("Inputs the validate endpoint found problems in")
+                .register(registry);
     }
 
     @PostMapping("/evaluate")
-    public ResponseEntity<EvaluateResponse> evaluate(@RequestBody EvaluateRequest req) {
-        EvaluateResponse resp = engineService.evaluate(req.getExpression());
-        if ("OK".equalsIgnoreCase(resp.getStatus())) {
-            historyService.add(resp.getExpression(), resp.getResult());
+    public ResponseEntity<EvaluateResponse> evaluate(@RequestBody EvaluateRequest req, HttpServletRequest request) {
+        EvaluateResponse resp = computeService.evaluate(req.getExpression(), CalculatorEngine.Mode.parse(req.getMode()),
+                ResponseShape.parse(req.getShape()), engineService.context(req.getPrecision(), req.getRounding()));
+        String client = ClientIds.resolveOwn(request);
+        if (client != null && "OK".equalsIgnoreCase(resp.getStatus())) {
+            historyService.add(client, req.getExpression(),
+                    resp.getResult() != null ? resp.getResult() : resp.getFormatted());
         }
         return ResponseEntity.ok(resp);
     }
 
+    @PostMapping("/evaluate/batch")
+    public ResponseEntity<List<EvaluateResponse>> evaluateBatch(@RequestBody BatchEvaluateRequest req) {
+        List<EvaluateResponse> results = batchService.evaluateAll(req.getExpressions());
+        batchSize.record(results.size());
+        return ResponseEntity.ok(results);
+    }
+
+    /**
+     * Evaluate one parameterized expression over columnar variable bindings.
+     */
+    @PostMapping("/evaluate/vector")
+    public ResponseEntity<List<EvaluateResponse>> evaluateVector(@RequestBody VectorEvaluateRequest req) {
+        List<EvaluateResponse> results = batchService.evaluateColumns(req.getExpression(), req.getBindings());
+        batchSize.record(results.size());
+        return ResponseEntity.ok(results);
+    }
+
+    /**
+     * Newline-delimited expressions in, NDJSON results out, one line per input line.
+     */
+    @PostMapping("/evaluate/stream")
+    public void evaluateStream(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        response.setContentType("application/x-ndjson");
+        response.setCharacterEncoding("UTF-8");
+        streamLines.increment(streamService.evaluate(
+                new InputStreamReader(request.getInputStream(), StandardCharsets.UTF_8), response.getOutputStream()));
+    }
+
+    /**
+     * Length-prefixed binary frames in and out, for machine clients; see
+     * {@link WireService} for the format.
+     */
+    @PostMapping("/evaluate/wire")
+    public void evaluateWire(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        response.setContentType(MediaType.APPLICATION_OCTET_STREAM_VALUE);
+        wireFrames.increment(wireService.serve(request.getInputStream(), response.getOutputStream()));
+    }
+
+    /**
+     * Sample an expression in x. The body is little-endian float32 {@code x, y}
+     * pairs in increasing x, with NaN where the expression is undefined.
+     */
+    @GetMapping("/plot")
+    public ResponseEntity<byte[]> plot(@RequestParam(name = "expression") String expression,
+            @RequestParam(name = "xmin", defaultValue = "-10") double xmin,
+            @RequestParam(name = "xmax", defaultValue = "10") double xmax,
+            @RequestParam(name = "width", defaultValue = "200") int width) {
+        return plotResponse(plotService.plot(expression, xmin, xmax, width));
+    }
+
+    @PostMapping("/plot")
+    public ResponseEntity<byte[]> plot(@RequestBody PlotRequest req) {
+        return plotResponse(plotService.plot(req.getExpression(), req.getXmin(), req.getXmax(), req.getWidth()));
+    }
+
+    private static ResponseEntity<byte[]> plotResponse(float[] points) {
+        ByteBuffer buf = ByteBuffer.allocate(points.length * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        buf.asFloatBuffer().put(points);
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                .header(PLOT_POINTS, Integer.toString(points.length / 2))
+                .body(buf.array());
+    }
+
     @PostMapping("/preview")
-    public ResponseEntity<EvaluateResponse> preview(@RequestBody EvaluateRequest req) {
-        EvaluateResponse resp = engineService.preview(req.getExpression());
+    public ResponseEntity<EvaluateResponse> preview(@RequestBody EvaluateRequest req, HttpServletRequest request) {
+        EvaluateResponse resp = previewService.preview(ClientIds.resolveOwn(request), req.getExpression(),
+                CalculatorEngine.Mode.parse(req.getMode()), engineService.context(req.getPrecision(), req.getRounding()));
         return ResponseEntity.ok(resp);
     }
 
+    /**
+     * Check an expression's structure without evaluating it, cheap enough for
+     * every keystroke: each problem is reported with its character offset.
+     */
+    @PostMapping("/validate")
+    public ResponseEntity<ValidationResponse> validate(@RequestBody EvaluateRequest req) {
+        ValidationResponse resp = new ValidationResponse(engineService.validate(req.getExpression()));
+        if (!resp.isValid())
+            invalidInputs.increment();
+        return ResponseEntity.ok(resp);
+    }
+
+    @GetMapping("/cache")
+    public ResponseEntity<?> cacheStats() {
+        return ResponseEntity.ok(engineService.cacheStats());
+    }
+
+    /**
+     * One page of the client's history, newest first. When more entries remain,
+     * the cursor for the next page is returned in the {@value #NEXT_CURSOR} header.
+     * Anonymous callers have no history, so theirs is always empty.
+     */
     @GetMapping("/history")
-    public ResponseEntity<?> history() {
-        return ResponseEntity.ok(historyService.list());
+    public ResponseEntity<List<HistoryService.HistoryEntry>> history(
+            @RequestParam(name = "cursor", required = false) Long cursor,
+            @RequestParam(name = "limit", defaultValue = "50") int limit,
+            @RequestParam(name = "q", required = false) String q,
+            @RequestParam(name = "min", required = false) BigDecimal min,
+            @RequestParam(name = "max", required = false) BigDecimal max,
+            HttpServletRequest request) {
+        String client = ClientIds.resolveOwn(request);
+        if (client == null)
+            return ResponseEntity.ok(List.of());
+        HistoryService.Page page = historyService.list(client, cursor, limit, q, min, max);
+        ResponseEntity.BodyBuilder ok = ResponseEntity.ok();
+        if (page.nextCursor() != null)
+            ok.header(NEXT_CURSOR, page.nextCursor().toString());
+        return ok.body(page.items());
     }
 
     @PostMapping("/history/clear")
-    public ResponseEntity<?> clearHistory() {
-        historyService.clear();
+    public ResponseEntity<?> clearHistory(HttpServletRequest request) {
+        String client = ClientIds.resolveOwn(request);
+        if (client != null)
+            historyService.clear(client);
         return ResponseEntity.ok(Map.of("status", "OK"));
     }
 
     @GetMapping("/memory")
-    public ResponseEntity<?> memory() {
-        return ResponseEntity.ok(memoryService.recallAsMap());
+    public ResponseEntity<?> memory(HttpServletRequest request) {
+        return ResponseEntity.ok(memoryService.recallAsMap(ClientIds.require(request)));
     }
 
     @PostMapping("/memory")
-    public ResponseEntity<?> memoryOp(@RequestBody Map<String, String> body) {
-        memoryService.apply(body);
-        return ResponseEntity.ok(memoryService.recallAsMap());
+    public ResponseEntity<?> memoryOp(@RequestBody Map<String, String> body, HttpServletRequest request) {
+        String client = ClientIds.require(request);
+        memoryService.apply(client, body);
+        return ResponseEntity.ok(memoryService.recallAsMap(client));
     }
 }
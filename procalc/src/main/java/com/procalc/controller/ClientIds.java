@@ -0,0 +1,46 @@
+package com.procalc.controller;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpSession;
+
+/**
+ * Resolves which client a request belongs to, for per-client memory and history.
+ * Clients send an {@value #HEADER} header (the browser UI keeps a random one in
+ * local storage); a request without it uses its HTTP session if it already has
+ * one. Anything else is {@link #ANONYMOUS}: no session is created for it, so
+ * callers that send neither cost no server state. They get no history and no
+ * registers either, since those would be shared by every such caller.
+ */
+final class ClientIds {
+    static final String HEADER = "X-Client-Id";
+    static final String ANONYMOUS = "anonymous";
+    private static final int MAX_LENGTH = 64;
+
+    private ClientIds() {
+    }
+
+    static String resolve(HttpServletRequest request) {
+        String id = request.getHeader(HEADER);
+        if (id != null && !id.isBlank()) {
+            if (id.length() > MAX_LENGTH)
+                throw new IllegalArgumentException(HEADER + " longer than " + MAX_LENGTH + " characters");
+            return "h:" + id;
+        }
+        HttpSession session = request.getSession(false);
+        return session == null ? ANONYMOUS : "s:" + session.getId();
+    }
+
+    /** Like {@link #resolve} but null for an anonymous caller, for state that must not be shared. */
+    static String resolveOwn(HttpServletRequest request) {
+        String id = resolve(request);
+        return ANONYMOUS.equals(id) ? null : id;
+    }
+
+    /** Like {@link #resolve} but rejects an anonymous caller. */
+    static String require(HttpServletRequest request) {
+        String id = resolveOwn(request);
+        if (id == null)
+            throw new IllegalArgumentException(HEADER + " required");
+        return id;
+    }
+}
@@ -4,6 +4,7 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RestController;
 
+import java.lang.management.ManagementFactory;
 import java.util.Map;
 
 @RestController
@@ -14,7 +15,7 @@ public class HealthController {
         return ResponseEntity.ok(Map.of(
                 "status", "OK",
                 "service", "procalc",
-                "uptime", System.currentTimeMillis()
+                "uptime", ManagementFactory.getRuntimeMXBean().getUptime()
         ));
     }
 }
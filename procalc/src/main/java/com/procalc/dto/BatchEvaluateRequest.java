@@ -0,0 +1,22 @@
+package com.procalc.dto;
+
+import java.util.List;
+
+public class BatchEvaluateRequest {
+    private List<String> expressions;
+
+    public BatchEvaluateRequest() {
+    }
+
+    public BatchEvaluateRequest(List<String> expressions) {
+        this.expressions = expressions;
+    }
+
+    public List<String> getExpressions() {
+        return expressions;
+    }
+
+    public void setExpressions(List<String> expressions) {
+        this.expressions = expressions;
+    }
+}
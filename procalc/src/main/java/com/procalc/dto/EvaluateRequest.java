@@ -2,6 +2,14 @@ package com.procalc.dto;
 
 public class EvaluateRequest {
     private String expression;
+    /** BIGDECIMAL (default) or DOUBLE */
+    private String mode;
+    /** RESULT, FORMATTED or FULL (default); see {@link ResponseShape} */
+    private String shape;
+    /** Significant digits for BIGDECIMAL mode; null means 28 */
+    private Integer precision;
+    /** A java.math.RoundingMode name such as HALF_EVEN; null means HALF_UP */
+    private String rounding;
 
     public EvaluateRequest() {
     }
@@ -17,4 +25,36 @@ public class EvaluateRequest {
     public void setExpression(String expression) {
         this.expression = expression;
     }
+
+    public String getMode() {
+        return mode;
+    }
+
+    public void setMode(String mode) {
+        this.mode = mode;
+    }
+
+    public String getShape() {
+        return shape;
+    }
+
+    public void setShape(String shape) {
+        this.shape = shape;
+    }
+
+    public Integer getPrecision() {
+        return precision;
+    }
+
+    public void setPrecision(Integer precision) {
+        this.precision = precision;
+    }
+
+    public String getRounding() {
+        return rounding;
+    }
+
+    public void setRounding(String rounding) {
+        this.rounding = rounding;
+    }
 }
@@ -1,11 +1,16 @@
 package com.procalc.dto;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+
 public class EvaluateResponse {
     private String expression;
     private String result;
     private String formatted;
     private String status;
     private String message;
+    /** Offset in the expression that the error refers to, when known */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Integer position;
 
     public EvaluateResponse() {
     }
@@ -56,4 +61,20 @@ public class EvaluateResponse {
     public void setMessage(String message) {
         this.message = message;
     }
+
+    public Integer getPosition() {
+        return position;
+    }
+
+    public void setPosition(Integer position) {
+        this.position = position;
+    }
+
+    /**
+     * A response for a {@link ResponseShape} other than FULL: fields the shape
+     * leaves out are omitted from the JSON instead of written as null.
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public static class Trimmed extends EvaluateResponse {
+    }
 }
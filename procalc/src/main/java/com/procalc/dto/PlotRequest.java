@@ -0,0 +1,54 @@
+package com.procalc.dto;
+
+/**
+ * An expression in {@code x} to sample over {@code [xmin, xmax]} at {@code width}
+ * pixel columns.
+ */
+public class PlotRequest {
+    private String expression;
+    private double xmin = -10;
+    private double xmax = 10;
+    private int width = 200;
+
+    public PlotRequest() {
+    }
+
+    public PlotRequest(String expression, double xmin, double xmax, int width) {
+        this.expression = expression;
+        this.xmin = xmin;
+        this.xmax = xmax;
+        this.width = width;
+    }
+
+    public String getExpression() {
+        return expression;
+    }
+
+    public void setExpression(String expression) {
+        this.expression = expression;
+    }
+
+    public double getXmin() {
+        return xmin;
+    }
+
+    public void setXmin(double xmin) {
+        this.xmin = xmin;
+    }
+
+    public double getXmax() {
+        return xmax;
+    }
+
+    public void setXmax(double xmax) {
+        this.xmax = xmax;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public void setWidth(int width) {
+        this.width = width;
+    }
+}
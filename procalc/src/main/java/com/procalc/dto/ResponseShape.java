@@ -0,0 +1,34 @@
+package com.procalc.dto;
+
+/**
+ * Which fields an evaluate response carries. Strings are only built for the
+ * fields asked for, which matters for results with hundreds of digits.
+ */
+public enum ResponseShape {
+    /** Plain result string and status only. */
+    RESULT,
+    /** Display string and status only. */
+    FORMATTED,
+    /** Expression, result and formatted (default). */
+    FULL;
+
+    /**
+     * Parse a shape name case-insensitively; null or blank means {@link #FULL}.
+     */
+    public static ResponseShape parse(String s) {
+        if (s == null || s.isBlank())
+            return FULL;
+        for (ResponseShape shape : values())
+            if (shape.name().equalsIgnoreCase(s.trim()))
+                return shape;
+        throw new IllegalArgumentException("Unknown shape: " + s);
+    }
+
+    public boolean includesResult() {
+        return this != FORMATTED;
+    }
+
+    public boolean includesFormatted() {
+        return this != RESULT;
+    }
+}
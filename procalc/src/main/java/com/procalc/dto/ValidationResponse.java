@@ -0,0 +1,24 @@
+package com.procalc.dto;
+
+import com.procalc.engine.ExpressionError;
+
+import java.util.List;
+
+public class ValidationResponse {
+    private final boolean valid;
+    /** Every problem found, in input order; each has a message and a character offset */
+    private final List<ExpressionError> errors;
+
+    public ValidationResponse(List<ExpressionError> errors) {
+        this.valid = errors.isEmpty();
+        this.errors = errors;
+    }
+
+    public boolean isValid() {
+        return valid;
+    }
+
+    public List<ExpressionError> getErrors() {
+        return errors;
+    }
+}
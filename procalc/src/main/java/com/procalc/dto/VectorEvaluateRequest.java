@@ -0,0 +1,38 @@
+package com.procalc.dto;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One expression plus columnar variable bindings: every column holds one value
+ * per row, and all columns must have the same length.
+ */
+public class VectorEvaluateRequest {
+    private String expression;
+    private Map<String, List<BigDecimal>> bindings;
+
+    public VectorEvaluateRequest() {
+    }
+
+    public VectorEvaluateRequest(String expression, Map<String, List<BigDecimal>> bindings) {
+        this.expression = expression;
+        this.bindings = bindings;
+    }
+
+    public String getExpression() {
+        return expression;
+    }
+
+    public void setExpression(String expression) {
+        this.expression = expression;
+    }
+
+    public Map<String, List<BigDecimal>> getBindings() {
+        return bindings;
+    }
+
+    public void setBindings(Map<String, List<BigDecimal>> bindings) {
+        this.bindings = bindings;
+    }
+}
@@ -0,0 +1,377 @@
+package com.procalc.engine;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.IntFunction;
+
+/**
+ * Arbitrary-precision elementary functions on BigDecimal.
+ *
+ * Cost model: at {@value #DOUBLE_DIGITS} digits or fewer a double already carries
+ * the requested precision, so those calls use {@link Math} as long as the
+ * operands lie well inside the double range (and, for pow, the result too).
+ * Logarithms near 1 are taken as {@link Math#log1p} of x - 1 computed exactly,
+ * since the double nearest x has already lost the digits that matter there.
+ * Above that, arguments
+ * are reduced so series converge in O(sqrt(precision)) terms: exp halves its
+ * argument and squares back, ln refines a double estimate with Halley steps
+ * (each step triples the correct digits), and trig reduces modulo pi/2.
+ * pi, e and ln(10) are computed once at the highest precision requested so far
+ * and rounded for lower ones; each rounding is kept for the most recently
+ * used MathContexts, so a request at 1000 digits does not make later 28-digit
+ * calls round a 1000-digit value every time.
+ *
+ * Powers are refused with "Overflow" or "Underflow" when the result's decimal
+ * exponent would pass {@value #MAX_EXPONENT}, so no result is too large to
+ * print.
+ */
+public final class BigMath {
+    /** Precision at or below which double arithmetic is exact enough. */
+    static final int DOUBLE_DIGITS = 15;
+    private static final int GUARD = 10;
+    /** Decimal exponent within which an operand converts to a double without overflow or underflow. */
+    private static final int DOUBLE_EXPONENT = 300;
+    /** Largest decimal exponent, in either direction, of a power's result. */
+    public static final int MAX_EXPONENT = 10_000;
+
+    private static final BigDecimal TWO = BigDecimal.valueOf(2);
+    private static final BigDecimal HALF = new BigDecimal("0.5");
+    private static final double LN10_DOUBLE = Math.log(10);
+    private static final BigDecimal EXP_LIMIT = BigDecimal.valueOf(100_000_000);
+
+    /** Contexts whose rounded constants are kept; the least recently used is dropped past this. */
+    private static final int MAX_CONTEXTS = 64;
+
+    private static final Constant PI = new Constant(BigMath::computePi);
+    private static final Constant E = new Constant(
+            digits -> exp(BigDecimal.ONE, new MathContext(digits, RoundingMode.HALF_EVEN)));
+    private static final Constant LN10 = new Constant(
+            digits -> halley(BigDecimal.TEN, new MathContext(digits, RoundingMode.HALF_EVEN)));
+
+    /** A constant at the longest precision computed so far, and its roundings. */
+    private static final class Constant {
+        final AtomicReference<BigDecimal> longest = new AtomicReference<>(BigDecimal.ZERO);
+        final ContextCache<BigDecimal> rounded = new ContextCache<>(MAX_CONTEXTS, this::round);
+        final IntFunction<BigDecimal> compute;
+
+        Constant(IntFunction<BigDecimal> compute) {
+            this.compute = compute;
+        }
+
+        /**
+         * Round the longest value held to {@code mc}, recomputing with a few
+         * extra digits when it has fewer than requested.
+         */
+        private BigDecimal round(MathContext mc) {
+            BigDecimal v = longest.get();
+            int digits = mc.getPrecision() + GUARD;
+            if (v.precision() < digits) {
+                v = compute.apply(digits);
+                BigDecimal prev = longest.get();
+                if (prev.precision() < v.precision())
+                    longest.compareAndSet(prev, v);
+            }
+            return v.round(mc);
+        }
+    }
+
+    private BigMath() {
+    }
+
+    private static boolean useDouble(MathContext mc) {
+        return mc.getPrecision() != 0 && mc.getPrecision() <= DOUBLE_DIGITS;
+    }
+
+    /** Whether {@code x} can take the double path at {@code mc}: its magnitude must be within 1e±300. */
+    private static boolean useDouble(BigDecimal x, MathContext mc) {
+        int exponent = x.precision() - x.scale();
+        return useDouble(mc) && exponent < DOUBLE_EXPONENT && exponent > -DOUBLE_EXPONENT;
+    }
+
+    private static MathContext working(MathContext mc, int extra) {
+        return new MathContext(mc.getPrecision() + GUARD + extra, RoundingMode.HALF_EVEN);
+    }
+
+    private static BigDecimal fromDouble(double d, MathContext mc) {
+        if (Double.isNaN(d) || Double.isInfinite(d))
+            throw new ArithmeticException("Infinite or NaN");
+        return new BigDecimal(d, mc);
+    }
+
+    // ---- constants ----
+
+    public static BigDecimal pi(MathContext mc) {
+        return cached(PI, mc);
+    }
+
+    public static BigDecimal e(MathContext mc) {
+        return cached(E, mc);
+    }
+
+    static BigDecimal ln10(MathContext mc) {
+        return cached(LN10, mc);
+    }
+
+    private static BigDecimal cached(Constant c, MathContext mc) {
+        return c.rounded.get(mc);
+    }
+
+    /** Machin: pi = 16 atan(1/5) - 4 atan(1/239). */
+    private static BigDecimal computePi(int digits) {
+        MathContext wc = new MathContext(digits + GUARD, RoundingMode.HALF_EVEN);
+        BigDecimal a = atanInverse(5, wc).multiply(BigDecimal.valueOf(16), wc);
+        BigDecimal b = atanInverse(239, wc).multiply(BigDecimal.valueOf(4), wc);
+        return a.subtract(b, wc).round(new MathContext(digits, RoundingMode.HALF_EVEN));
+    }
+
+    /** atan(1/n) = sum (-1)^k / ((2k+1) n^(2k+1)). */
+    private static BigDecimal atanInverse(int n, MathContext wc) {
+        BigDecimal n2 = BigDecimal.valueOf((long) n * n);
+        BigDecimal power = BigDecimal.ONE.divide(BigDecimal.valueOf(n), wc);
+        BigDecimal sum = power;
+        BigDecimal eps = BigDecimal.ONE.movePointLeft(wc.getPrecision());
+        for (int k = 1; ; k++) {
+            power = power.divide(n2, wc);
+            BigDecimal term = power.divide(BigDecimal.valueOf(2L * k + 1), wc);
+            if (term.compareTo(eps) < 0)
+                return sum;
+            sum = (k % 2 == 1) ? sum.subtract(term, wc) : sum.add(term, wc);
+        }
+    }
+
+    // ---- functions ----
+
+    public static BigDecimal sqrt(BigDecimal x, MathContext mc) {
+        if (x.signum() < 0)
+            throw new ArithmeticException("sqrt domain error");
+        return x.sqrt(mc); // Newton iteration seeded from a double estimate
+    }
+
+    public static BigDecimal exp(BigDecimal x, MathContext mc) {
+        if (x.signum() == 0)
+            return BigDecimal.ONE.round(mc);
+        if (x.abs().compareTo(EXP_LIMIT) > 0)
+            throw new ArithmeticException("Overflow");
+        if (x.signum() < 0)
+            return BigDecimal.ONE.divide(exp(x.negate(), working(mc, 0)), mc);
+        // exp(x) = exp(x / 2^k)^(2^k): about sqrt(p) halvings keep the series short
+        int k = x.toBigInteger().bitLength() + (int) Math.sqrt(mc.getPrecision());
+        MathContext wc = working(mc, k * 3 / 10 + 1);
+        BigDecimal r = x.divide(TWO.pow(k), wc);
+        BigDecimal eps = BigDecimal.ONE.movePointLeft(wc.getPrecision());
+        BigDecimal sum = BigDecimal.ONE, term = BigDecimal.ONE;
+        for (int n = 1; term.compareTo(eps) > 0; n++) {
+            term = term.multiply(r, wc).divide(BigDecimal.valueOf(n), wc);
+            sum = sum.add(term, wc);
+        }
+        for (int i = 0; i < k; i++)
+            sum = sum.multiply(sum, wc);
+        return sum.round(mc);
+    }
+
+    public static BigDecimal ln(BigDecimal x, MathContext mc) {
+        if (x.signum() <= 0)
+            throw new ArithmeticException("ln domain error");
+        if (useDouble(x, mc))
+            return fromDouble(lnDouble(x), mc);
+        return lnHalley(x, mc);
+    }
+
+    /**
+     * ln x in double arithmetic. Near 1 the double nearest x has lost the
+     * digits of x - 1 that ln x consists of, so x - 1 is taken exactly first
+     * and passed to {@link Math#log1p}.
+     */
+    private static double lnDouble(BigDecimal x) {
+        BigDecimal d = x.subtract(BigDecimal.ONE);
+        return d.abs().compareTo(HALF) < 0 ? Math.log1p(d.doubleValue()) : Math.log(x.doubleValue());
+    }
+
+    public static BigDecimal log10(BigDecimal x, MathContext mc) {
+        if (x.signum() <= 0)
+            throw new ArithmeticException("log domain error");
+        BigDecimal stripped = x.stripTrailingZeros();
+        if (stripped.unscaledValue().equals(BigInteger.ONE))
+            return BigDecimal.valueOf(-stripped.scale()); // exact power of ten
+        if (useDouble(x, mc)) {
+            BigDecimal d = x.subtract(BigDecimal.ONE);
+            return fromDouble(d.abs().compareTo(HALF) < 0 ? lnDouble(x) / LN10_DOUBLE : Math.log10(x.doubleValue()), mc);
+        }
+        MathContext wc = working(mc, 0);
+        return lnHalley(x, wc).divide(ln10(wc), mc);
+    }
+
+    /**
+     * x = m * 10^k with m in [1, 10); ln(m) by Halley's iteration
+     * y += 2 (m - e^y) / (m + e^y), seeded from Math.log1p. Near 1, m - e^y
+     * cancels as many leading digits as x - 1 has zeros, so x is taken whole
+     * and the working precision carries that many more; once those zeros pass
+     * the working precision, x - 1 - (x - 1)^2 / 2 is already exact enough.
+     */
+    private static BigDecimal lnHalley(BigDecimal x, MathContext mc) {
+        BigDecimal d = x.subtract(BigDecimal.ONE);
+        if (d.signum() == 0)
+            return BigDecimal.ZERO;
+        int zeros = d.scale() - d.precision();
+        if (zeros > 0) {
+            if (zeros >= working(mc, 0).getPrecision())
+                return d.subtract(d.multiply(d).divide(TWO), mc);
+            return halley(x, working(mc, zeros)).round(mc);
+        }
+        int k = x.precision() - x.scale() - 1;
+        MathContext wc = working(mc, 0);
+        BigDecimal y = halley(x.movePointLeft(k), wc);
+        if (k != 0)
+            y = y.add(ln10(wc).multiply(BigDecimal.valueOf(k), wc), wc);
+        return y.round(mc);
+    }
+
+    /** ln(m) for m of moderate size, to the precision of {@code wc}. */
+    private static BigDecimal halley(BigDecimal m, MathContext wc) {
+        BigDecimal y = new BigDecimal(Math.log1p(m.subtract(BigDecimal.ONE).doubleValue()));
+        for (int digits = 15; digits < wc.getPrecision(); digits *= 3) {
+            BigDecimal ey = exp(y, wc);
+            y = y.add(TWO.multiply(m.subtract(ey, wc), wc).divide(m.add(ey, wc), wc), wc);
+        }
+        return y;
+    }
+
+    public static BigDecimal sin(BigDecimal x, MathContext mc) {
+        if (useDouble(x, mc))
+            return fromDouble(Math.sin(x.doubleValue()), mc);
+        return trig(x, mc, true);
+    }
+
+    public static BigDecimal cos(BigDecimal x, MathContext mc) {
+        if (useDouble(x, mc))
+            return fromDouble(Math.cos(x.doubleValue()), mc);
+        return trig(x, mc, false);
+    }
+
+    public static BigDecimal tan(BigDecimal x, MathContext mc) {
+        if (useDouble(x, mc))
+            return fromDouble(Math.tan(x.doubleValue()), mc);
+        MathContext wc = working(mc, 0);
+        BigDecimal c = trig(x, wc, false);
+        if (c.signum() == 0)
+            throw new ArithmeticException("tan domain error");
+        return trig(x, wc, true).divide(c, mc);
+    }
+
+    /**
+     * Reduce x = n * pi/2 + r with |r| <= pi/4, then use the sin or cos series on r
+     * according to the quadrant n mod 4. Near a multiple of pi/2 the leading
+     * digits of x and n * pi/2 cancel, leaving r with that many fewer correct
+     * digits; the reduction is then repeated with pi carrying that many more.
+     */
+    private static BigDecimal trig(BigDecimal x, MathContext mc, boolean sine) {
+        int intDigits = Math.max(0, x.precision() - x.scale());
+        if (intDigits > 1000)
+            throw new ArithmeticException("trig argument too large");
+        int extra = intDigits;
+        MathContext wc;
+        BigInteger n;
+        BigDecimal r;
+        for (int pass = 0; ; pass++) {
+            wc = working(mc, extra);
+            BigDecimal halfPi = pi(wc).divide(TWO, wc);
+            n = x.divide(halfPi, wc).setScale(0, RoundingMode.HALF_EVEN).toBigIntegerExact();
+            r = x.subtract(halfPi.multiply(new BigDecimal(n), wc), wc);
+            if (n.signum() == 0)
+                break; // nothing subtracted, nothing cancelled
+            // digits cancelled: how far r's leading digit lies below that of n * pi/2;
+            // half the guard digits may go, the rest keep the series accurate
+            long cancelled = r.signum() == 0 ? wc.getPrecision()
+                    : (long) intDigits + (r.scale() - r.precision() + 1);
+            if (cancelled <= extra - intDigits + GUARD / 2 || pass == 2)
+                break;
+            extra = (int) Math.min(intDigits + cancelled, intDigits + 2L * x.precision() + mc.getPrecision());
+        }
+        int quadrant = n.mod(BigInteger.valueOf(4)).intValue();
+        boolean useSin = sine == (quadrant % 2 == 0);
+        BigDecimal v = useSin ? sinSeries(r, wc) : cosSeries(r, wc);
+        boolean negate = sine ? quadrant >= 2 : (quadrant == 1 || quadrant == 2);
+        return (negate ? v.negate() : v).round(mc);
+    }
+
+    private static BigDecimal sinSeries(BigDecimal r, MathContext wc) {
+        BigDecimal r2 = r.multiply(r, wc);
+        BigDecimal term = r, sum = r;
+        BigDecimal eps = BigDecimal.ONE.movePointLeft(wc.getPrecision());
+        for (int n = 1; term.abs().compareTo(eps) > 0; n++) {
+            term = term.multiply(r2, wc).divide(BigDecimal.valueOf((2L * n) * (2L * n + 1)), wc).negate();
+            sum = sum.add(term, wc);
+        }
+        return sum;
+    }
+
+    private static BigDecimal cosSeries(BigDecimal r, MathContext wc) {
+        BigDecimal r2 = r.multiply(r, wc);
+        BigDecimal term = BigDecimal.ONE, sum = BigDecimal.ONE;
+        BigDecimal eps = BigDecimal.ONE.movePointLeft(wc.getPrecision());
+        for (int n = 1; term.abs().compareTo(eps) > 0; n++) {
+            term = term.multiply(r2, wc).divide(BigDecimal.valueOf((2L * n - 1) * (2L * n)), wc).negate();
+            sum = sum.add(term, wc);
+        }
+        return sum;
+    }
+
+    /**
+     * a^b: integer exponents are exact up to rounding by repeated squaring;
+     * other exponents use exp(b ln a) and need a >= 0.
+     */
+    public static BigDecimal pow(BigDecimal a, BigDecimal b, MathContext mc) {
+        BigDecimal bs = b.stripTrailingZeros();
+        if (bs.scale() <= 0 && bs.abs().compareTo(BigDecimal.valueOf(999_999_999)) <= 0) {
+            int n = bs.intValueExact();
+            if (a.signum() == 0 && n < 0)
+                throw new ArithmeticException("Division by zero");
+            if (a.signum() != 0) {
+                // refuse before expanding: the exponent is within one of n * log10|a|
+                double estimate = n * log10Abs(a);
+                if (estimate > MAX_EXPONENT + 1 || estimate < -MAX_EXPONENT - 1)
+                    throw new ArithmeticException(estimate > 0 ? "Overflow" : "Underflow");
+            }
+            if (n >= 0 && (long) a.precision() * n <= mc.getPrecision())
+                return inRange(a.pow(n)); // exact result fits the precision: plain multiplication, no rounding
+            return inRange(a.pow(n, mc));
+        }
+        if (a.signum() == 0) {
+            if (b.signum() > 0)
+                return BigDecimal.ZERO;
+            throw new ArithmeticException("Division by zero");
+        }
+        if (a.signum() < 0)
+            throw new ArithmeticException("pow domain error");
+        if (useDouble(a, mc) && useDouble(b, mc)) {
+            // near 1 the double nearest a has lost digits that a large exponent magnifies
+            BigDecimal d = a.subtract(BigDecimal.ONE);
+            double r = d.abs().compareTo(HALF) < 0
+                    ? Math.exp(b.doubleValue() * Math.log1p(d.doubleValue()))
+                    : Math.pow(a.doubleValue(), b.doubleValue());
+            if (Double.isFinite(r) && r >= Double.MIN_NORMAL)
+                return inRange(new BigDecimal(r, mc)); // otherwise the result is out of double range
+        }
+        MathContext wc = working(mc, 0);
+        return inRange(exp(b.multiply(lnHalley(a, wc), wc), mc));
+    }
+
+    /** log10|a| for nonzero a of any magnitude, to double precision. */
+    static double log10Abs(BigDecimal a) {
+        int exponent = a.precision() - a.scale() - 1;
+        return exponent + Math.log10(a.movePointLeft(exponent).abs().doubleValue());
+    }
+
+    /** {@code v}, or an error if its decimal exponent is past {@link #MAX_EXPONENT}. */
+    private static BigDecimal inRange(BigDecimal v) {
+        long exponent = (long) v.precision() - v.scale() - 1;
+        if (v.signum() != 0 && exponent > MAX_EXPONENT)
+            throw new ArithmeticException("Overflow");
+        if (v.signum() != 0 && exponent < -MAX_EXPONENT)
+            throw new ArithmeticException("Underflow");
+        return v;
+    }
+}
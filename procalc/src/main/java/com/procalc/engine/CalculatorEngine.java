@@ -1,119 +1,124 @@
 package com.procalc.engine;
 
 import java.math.BigDecimal;
-import java.math.BigInteger;
 import java.math.MathContext;
 import java.math.RoundingMode;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Deque;
 import java.util.List;
+import java.util.Set;
 
 /**
- * Simple calculator engine: tokenize -> shunting-yard -> RPN evaluate using
- * BigDecimal.
+ * Simple calculator engine: tokenize -> shunting-yard -> compiled RPN program
+ * evaluated using BigDecimal (see {@link CompiledExpression}).
  * Supports + - * / ^, functions (sin, cos, tan, sqrt, log, ln, abs, pow),
- * constants (pi, e), postfix percent % and factorial !.
+ * constants (pi, e), postfix percent % and factorial !, and named variables
+ * when compiled with {@link #compile(String, List)}.
  */
 public class CalculatorEngine {
+    /** Contexts with a shared engine; the least recently used is dropped past this. */
+    static final int MAX_SHARED = 64;
+    /** Longest result string written in plain form; longer ones use scientific notation. */
+    public static final int MAX_PLAIN_LENGTH = 4096;
+    private static final ContextCache<CalculatorEngine> SHARED = new ContextCache<>(MAX_SHARED, CalculatorEngine::new);
+
     private final MathContext mathContext;
+    private final Literals literals;
 
     public CalculatorEngine(int precision, RoundingMode mode) {
-        this.mathContext = new MathContext(precision, mode);
+        this(new MathContext(precision, mode));
+    }
+
+    private CalculatorEngine(MathContext mathContext) {
+        this.mathContext = mathContext;
+        this.literals = Literals.of(mathContext);
+    }
+
+    /**
+     * The shared engine for {@code mathContext}. Engines are immutable, so one
+     * per context serves every request that asks for it, together with that
+     * context's parsed literals and constants. Engines for the {@value #MAX_SHARED}
+     * most recently used contexts are kept.
+     */
+    public static CalculatorEngine of(MathContext mathContext) {
+        return SHARED.get(mathContext);
+    }
+
+    /** Number of contexts with a shared engine. */
+    static int sharedContexts() {
+        return SHARED.size();
+    }
+
+    public MathContext getMathContext() {
+        return mathContext;
+    }
+
+    /**
+     * Evaluation mode: exact BigDecimal arithmetic (default) or fast primitive doubles.
+     */
+    public enum Mode {
+        BIGDECIMAL, DOUBLE;
+
+        /**
+         * Parse a mode name case-insensitively; null or blank means the default.
+         */
+        public static Mode parse(String s) {
+            if (s == null || s.isBlank())
+                return BIGDECIMAL;
+            for (Mode m : values())
+                if (m.name().equalsIgnoreCase(s.trim()))
+                    return m;
+            throw new IllegalArgumentException("Unknown mode: " + s);
+        }
     }
 
     public static class EvalResult {
         public final boolean ok;
         public final BigDecimal value;
         public final String message;
+        /** Offset in the input that the error refers to, or -1. */
+        public final int position;
 
         public EvalResult(boolean ok, BigDecimal value, String message) {
+            this(ok, value, message, -1);
+        }
+
+        public EvalResult(boolean ok, BigDecimal value, String message, int position) {
             this.ok = ok;
             this.value = value;
             this.message = message;
+            this.position = position;
         }
     }
 
     /**
      * Tokenize input string into simple tokens (numbers, operators, parentheses,
-     * percent, functions, commas for function args).
-     * Note: this is a pragmatic tokenizer suitable for calculator expressions.
+     * percent, functions, commas for function args). Unary minus is returned as "~".
+     * Note: this is a pragmatic tokenizer suitable for calculator expressions;
+     * the compile path reads {@link Lexer} tokens directly instead.
      */
     public List<String> tokenize(String expr) {
-        List<String> tokens = new ArrayList<>();
-        if (expr == null)
-            return tokens;
-        String s = expr.trim();
-        StringBuilder num = new StringBuilder();
-        StringBuilder ident = new StringBuilder();
-        for (int i = 0; i < s.length(); i++) {
-            char c = s.charAt(i);
-            if (Character.isDigit(c) || c == '.') {
-                num.append(c);
-            } else if (Character.isAlphabetic(c)) {
-                if (num.length() > 0) { tokens.add(num.toString()); num.setLength(0); }
-                ident.append(c);
-            } else if (c == ',') {
-                if (num.length() > 0) { tokens.add(num.toString()); num.setLength(0); }
-                if (ident.length() > 0) { tokens.add(ident.toString()); ident.setLength(0); }
-                tokens.add(",");
-            } else if (Character.isWhitespace(c)) {
-                if (num.length() > 0) {
-                    tokens.add(num.toString());
-                    num.setLength(0);
-                }
-                if (ident.length() > 0) {
-                    tokens.add(ident.toString());
-                    ident.setLength(0);
-                }
-            } else {
-                if (num.length() > 0) {
-                    tokens.add(num.toString());
-                    num.setLength(0);
-                }
-                if (ident.length() > 0) {
-                    tokens.add(ident.toString());
-                    ident.setLength(0);
-                }
-                if ("+-*/^()".indexOf(c) >= 0)
-                    tokens.add(String.valueOf(c));
-                else if (c == '×')
-                    tokens.add("*");
-                else if (c == '÷')
-                    tokens.add("/");
-                else if (c == '%')
-                    tokens.add("%");
-                else if (c == '!')
-                    tokens.add("!");
-                // ignore other characters
-            }
-        }
-        if (num.length() > 0)
-            tokens.add(num.toString());
-        if (ident.length() > 0)
-            tokens.add(ident.toString());
-
-        // Handle unary minus by inserting 0 before unary '-'
-        List<String> norm = new ArrayList<>();
-        for (int i = 0; i < tokens.size(); i++) {
-            String t = tokens.get(i);
-            if ("-".equals(t)) {
-                if (i == 0 || "+-*/(".contains(tokens.get(i - 1))) {
-                    norm.add("0");
-                    norm.add("-");
-                    continue;
-                }
-            }
-            norm.add(t);
-        }
-        return norm;
+        Lexer.Tokens lexed = Lexer.lex(expr, 0, null, literals);
+        List<String> tokens = new ArrayList<>(lexed.size());
+        for (int i = 0; i < lexed.size(); i++)
+            tokens.add(lexed.text(i));
+        return tokens;
+    }
+
+    /**
+     * Lex input once into typed tokens with parsed numbers and source offsets.
+     */
+    public Lexer.Tokens lex(String expr) {
+        return Lexer.lex(expr, 0, null, literals);
     }
 
     private boolean isNumericToken(String t) {
         return t != null && t.matches("-?\\d+(?:\\.\\d+)?");
     }
 
-    private boolean isOperator(String t) { return "+-*/^".contains(t); }
+    private boolean isOperator(String t) { return "+-*/^~".contains(t); }
 
     private boolean isFunction(String t) {
         return "sin".equalsIgnoreCase(t) || "cos".equalsIgnoreCase(t) || "tan".equalsIgnoreCase(t)
@@ -126,8 +131,8 @@ public class CalculatorEngine {
     }
 
     private BigDecimal constantValue(String t) {
-        if ("pi".equalsIgnoreCase(t)) return new BigDecimal(Math.PI, mathContext);
-        if ("e".equalsIgnoreCase(t)) return new BigDecimal(Math.E, mathContext);
+        if ("pi".equalsIgnoreCase(t)) return literals.pi();
+        if ("e".equalsIgnoreCase(t)) return literals.e();
         return BigDecimal.ZERO;
     }
 
@@ -135,7 +140,8 @@ public class CalculatorEngine {
         return switch (op) {
             case "+", "-" -> 1;
             case "*", "/" -> 2;
-            case "^" -> 3; // right-associative
+            case "~" -> 3; // unary minus, binds looser than ^ so -2^2 = -4
+            case "^" -> 4; // right-associative
             default -> 0;
         };
     }
@@ -146,6 +152,14 @@ public class CalculatorEngine {
      * Convert infix tokens to RPN using shunting-yard algorithm.
      */
     public List<String> toRPN(List<String> tokens) {
+        return toRPN(tokens, Set.of());
+    }
+
+    /**
+     * Convert infix tokens to RPN, passing the given variable names through as
+     * operands.
+     */
+    public List<String> toRPN(List<String> tokens, Set<String> variables) {
         List<String> out = new ArrayList<>();
         Deque<String> stack = new ArrayDeque<>();
         for (String t : tokens) {
@@ -155,8 +169,13 @@ public class CalculatorEngine {
                 out.add(t);
             } else if (isConstant(t)) {
                 out.add(constantValue(t).toPlainString());
+            } else if (variables.contains(t)) {
+                out.add(t);
             } else if (isFunction(t)) {
                 stack.push(t.toLowerCase());
+            } else if ("~".equals(t)) {
+                // prefix operator: nothing to its left to reduce
+                stack.push(t);
             } else if (isOperator(t)) {
                 while (!stack.isEmpty() && (isOperator(stack.peek()) || isFunction(stack.peek())) &&
                         (precedence(stack.peek()) > precedence(t) ||
@@ -198,135 +217,287 @@ public class CalculatorEngine {
     }
 
     /**
-     * Evaluate RPN list and return result or error.
+     * Compile an RPN list into an opcode program, parsing every literal once.
      */
-    public EvalResult evalRPN(List<String> rpn) {
-        Deque<BigDecimal> st = new ArrayDeque<>();
-        try {
-            for (String t : rpn) {
-                if (isNumericToken(t)) {
-                    st.push(new BigDecimal(t, mathContext));
-                } else if ("%".equals(t)) {
-                    if (st.isEmpty())
-                        return new EvalResult(false, null, "Percent used incorrectly");
-                    BigDecimal a = st.pop();
-                    BigDecimal res = a.divide(BigDecimal.valueOf(100), mathContext);
-                    st.push(res);
-                } else if (isOperator(t)) {
-                    if (st.size() < 2)
-                        return new EvalResult(false, null, "Malformed expression");
-                    BigDecimal b = st.pop();
-                    BigDecimal a = st.pop();
-                    BigDecimal r;
-                    switch (t) {
-                        case "+" -> r = a.add(b, mathContext);
-                        case "-" -> r = a.subtract(b, mathContext);
-                        case "*" -> r = a.multiply(b, mathContext);
-                        case "/" -> {
-                            if (b.compareTo(BigDecimal.ZERO) == 0)
-                                return new EvalResult(false, null, "Division by zero");
-                            r = a.divide(b, mathContext);
-                        }
-                        case "^" -> {
-                            double rd = Math.pow(a.doubleValue(), b.doubleValue());
-                            r = new BigDecimal(rd, mathContext);
-                        }
-                        default -> throw new IllegalStateException("Unknown operator " + t);
-                    }
-                    st.push(r);
-                } else if (isFunction(t)) {
-                    switch (t) {
-                        case "sin" -> {
-                            if (st.isEmpty()) return new EvalResult(false, null, "sin requires 1 arg");
-                            BigDecimal a = st.pop();
-                            double rd = Math.sin(a.doubleValue());
-                            st.push(new BigDecimal(rd, mathContext));
-                        }
-                        case "cos" -> {
-                            if (st.isEmpty()) return new EvalResult(false, null, "cos requires 1 arg");
-                            BigDecimal a = st.pop();
-                            double rd = Math.cos(a.doubleValue());
-                            st.push(new BigDecimal(rd, mathContext));
-                        }
-                        case "tan" -> {
-                            if (st.isEmpty()) return new EvalResult(false, null, "tan requires 1 arg");
-                            BigDecimal a = st.pop();
-                            double rd = Math.tan(a.doubleValue());
-                            st.push(new BigDecimal(rd, mathContext));
-                        }
-                        case "sqrt" -> {
-                            if (st.isEmpty()) return new EvalResult(false, null, "sqrt requires 1 arg");
-                            BigDecimal a = st.pop();
-                            if (a.compareTo(BigDecimal.ZERO) < 0) return new EvalResult(false, null, "sqrt domain error");
-                            double rd = Math.sqrt(a.doubleValue());
-                            st.push(new BigDecimal(rd, mathContext));
-                        }
-                        case "log" -> {
-                            if (st.isEmpty()) return new EvalResult(false, null, "log requires 1 arg");
-                            BigDecimal a = st.pop();
-                            if (a.compareTo(BigDecimal.ZERO) <= 0) return new EvalResult(false, null, "log domain error");
-                            double rd = Math.log10(a.doubleValue());
-                            st.push(new BigDecimal(rd, mathContext));
-                        }
-                        case "ln" -> {
-                            if (st.isEmpty()) return new EvalResult(false, null, "ln requires 1 arg");
-                            BigDecimal a = st.pop();
-                            if (a.compareTo(BigDecimal.ZERO) <= 0) return new EvalResult(false, null, "ln domain error");
-                            double rd = Math.log(a.doubleValue());
-                            st.push(new BigDecimal(rd, mathContext));
-                        }
-                        case "abs" -> {
-                            if (st.isEmpty()) return new EvalResult(false, null, "abs requires 1 arg");
-                            BigDecimal a = st.pop();
-                            st.push(a.abs(mathContext));
-                        }
-                        case "pow" -> {
-                            if (st.size() < 2) return new EvalResult(false, null, "pow requires 2 args");
-                            BigDecimal b = st.pop();
-                            BigDecimal a = st.pop();
-                            double rd = Math.pow(a.doubleValue(), b.doubleValue());
-                            st.push(new BigDecimal(rd, mathContext));
-                        }
-                        default -> { return new EvalResult(false, null, "Unknown function: " + t); }
+    public CompiledExpression compileRPN(String source, List<String> rpn) {
+        return compileRPN(source, rpn, List.of());
+    }
+
+    /**
+     * Compile an RPN list whose operands may reference the given variables; each
+     * variable is bound by position when the program is evaluated.
+     */
+    public CompiledExpression compileRPN(String source, List<String> rpn, List<String> variables) {
+        int n = rpn.size();
+        CompiledExpression.Op[] ops = new CompiledExpression.Op[n];
+        int[] args = new int[n];
+        List<BigDecimal> constants = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            String t = rpn.get(i);
+            if (isNumericToken(t)) {
+                ops[i] = CompiledExpression.Op.PUSH;
+                args[i] = constants.size();
+                constants.add(literals.parse(t));
+                continue;
+            }
+            int slot = variables.indexOf(t);
+            if (slot >= 0) {
+                ops[i] = CompiledExpression.Op.LOAD;
+                args[i] = slot;
+                continue;
+            }
+            ops[i] = switch (t) {
+                case "+" -> CompiledExpression.Op.ADD;
+                case "-" -> CompiledExpression.Op.SUB;
+                case "*" -> CompiledExpression.Op.MUL;
+                case "/" -> CompiledExpression.Op.DIV;
+                case "^" -> CompiledExpression.Op.POW;
+                case "~" -> CompiledExpression.Op.NEG;
+                case "%" -> CompiledExpression.Op.PERCENT;
+                case "!" -> CompiledExpression.Op.FACTORIAL;
+                case "sin" -> CompiledExpression.Op.SIN;
+                case "cos" -> CompiledExpression.Op.COS;
+                case "tan" -> CompiledExpression.Op.TAN;
+                case "sqrt" -> CompiledExpression.Op.SQRT;
+                case "log" -> CompiledExpression.Op.LOG;
+                case "ln" -> CompiledExpression.Op.LN;
+                case "abs" -> CompiledExpression.Op.ABS;
+                case "pow" -> CompiledExpression.Op.POW_FN;
+                default -> throw new IllegalArgumentException(isFunction(t)
+                        ? "Unknown function: " + t : "Unknown RPN token: " + t);
+            };
+        }
+        return new CompiledExpression(source, ops, args, constants.toArray(new BigDecimal[0]),
+                variables.toArray(new String[0]), 0, mathContext);
+    }
+
+    /**
+     * Fold constants, share repeated subexpressions and drop identity ops; see
+     * {@link Optimizer}. Folding stops once it has done {@code foldBudget} steps
+     * of work, leaving the rest to evaluation.
+     */
+    public CompiledExpression optimize(CompiledExpression program, long foldBudget) {
+        return new Optimizer(mathContext, foldBudget).optimize(program);
+    }
+
+    /**
+     * A fresh evaluator for successive edits of one expression; see
+     * {@link IncrementalEvaluator}.
+     */
+    public IncrementalEvaluator incrementalEvaluator(long stepBudget) {
+        return incrementalEvaluator(stepBudget, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Like {@link #incrementalEvaluator(long)}, giving up on input nested more
+     * than {@code maxDepth} parentheses before applying anything inside them.
+     */
+    public IncrementalEvaluator incrementalEvaluator(long stepBudget, int maxDepth) {
+        return new IncrementalEvaluator(mathContext, stepBudget, maxDepth);
+    }
+
+    /**
+     * Parse once into a reusable program: tokenize -> toRPN -> compileRPN.
+     * Throws IllegalArgumentException for input that cannot be parsed.
+     */
+    public CompiledExpression compile(String s) {
+        return compile(lex(s), List.of());
+    }
+
+    /**
+     * Compile an expression with named variables. Values are supplied per call to
+     * {@link CompiledExpression#evaluate(BigDecimal[])} in the order given here.
+     */
+    public CompiledExpression compile(String s, List<String> variables) {
+        for (String v : variables) {
+            if (v == null || v.isEmpty() || !Character.isAlphabetic(v.charAt(0))
+                    || !v.chars().allMatch(Character::isLetterOrDigit))
+                throw new IllegalArgumentException("Invalid variable name: " + v);
+            if (isConstant(v) || isFunction(v))
+                throw new IllegalArgumentException("Variable name is reserved: " + v);
+        }
+        if (Set.copyOf(variables).size() != variables.size())
+            throw new IllegalArgumentException("Duplicate variable name");
+        return compile(lex(s), variables);
+    }
+
+    private static final String[] FUNCTION_NAMES = { "sin", "cos", "tan", "sqrt", "log", "ln", "abs", "pow" };
+    private static final CompiledExpression.Op[] FUNCTION_OPS = {
+            CompiledExpression.Op.SIN, CompiledExpression.Op.COS, CompiledExpression.Op.TAN,
+            CompiledExpression.Op.SQRT, CompiledExpression.Op.LOG, CompiledExpression.Op.LN,
+            CompiledExpression.Op.ABS, CompiledExpression.Op.POW_FN };
+
+    /** The function op named by identifier token {@code i}, or null. */
+    static CompiledExpression.Op functionOp(Lexer.Tokens toks, int i) {
+        for (int f = 0; f < FUNCTION_NAMES.length; f++)
+            if (toks.identIs(i, FUNCTION_NAMES[f]))
+                return FUNCTION_OPS[f];
+        return null;
+    }
+
+    static int precedence(CompiledExpression.Op op) {
+        return switch (op) {
+            case ADD, SUB -> 1;
+            case MUL, DIV -> 2;
+            case NEG -> 3;
+            case POW -> 4;
+            default -> 0;
+        };
+    }
+
+    /**
+     * Every structural problem in {@code expr}, with its offset; empty if it
+     * would compile. Numbers are not parsed and nothing is evaluated, so this
+     * is cheap enough to run on every keystroke. See {@link Validator}.
+     */
+    public static List<ExpressionError> validate(String expr) {
+        return Validator.validate(Lexer.scan(expr), List.of());
+    }
+
+    /**
+     * Shunting-yard straight from lexer tokens to an opcode program, with the same
+     * rules as {@link #toRPN(List, Set)} but no intermediate strings. The tokens
+     * are validated first, and the earliest problem is thrown as a
+     * {@link ParseException} with its offset.
+     */
+    public CompiledExpression compile(Lexer.Tokens toks, List<String> variables) {
+        List<ExpressionError> errors = Validator.validate(toks, variables);
+        if (!errors.isEmpty())
+            throw new ParseException(errors.get(0).message(), errors.get(0).position());
+        int n = toks.size();
+        CompiledExpression.Op[] ops = new CompiledExpression.Op[n];
+        int[] args = new int[n];
+        BigDecimal[] constants = new BigDecimal[n];
+        int out = 0, nconst = 0;
+        // Operator stack: null marks '('; stackPos holds source offsets for errors
+        CompiledExpression.Op[] stack = new CompiledExpression.Op[n];
+        int[] stackPos = new int[n];
+        int sp = 0;
+        int open = 0, depth = 0;
+
+        for (int i = 0; i < n; i++) {
+            Lexer.Kind kind = toks.kind(i);
+            switch (kind) {
+                case NUMBER -> {
+                    ops[out] = CompiledExpression.Op.PUSH;
+                    args[out++] = nconst;
+                    constants[nconst++] = toks.number(i);
+                }
+                case IDENT -> {
+                    if (toks.identIs(i, "pi") || toks.identIs(i, "e")) {
+                        ops[out] = CompiledExpression.Op.PUSH;
+                        args[out++] = nconst;
+                        constants[nconst++] = constantValue(toks.identIs(i, "pi") ? "pi" : "e");
+                        break;
                     }
-                } else if ("!".equals(t)) {
-                    if (st.isEmpty()) return new EvalResult(false, null, "factorial requires 1 arg");
-                    BigDecimal a = st.pop();
-                    try {
-                        int n = a.stripTrailingZeros().intValueExact();
-                        if (n < 0) return new EvalResult(false, null, "factorial domain error");
-                        if (n > 170) return new EvalResult(false, null, "factorial too large");
-                        BigInteger bi = BigInteger.ONE;
-                        for (int i = 2; i <= n; i++) bi = bi.multiply(BigInteger.valueOf(i));
-                        st.push(new BigDecimal(bi, mathContext));
-                    } catch (ArithmeticException ex) {
-                        return new EvalResult(false, null, "factorial requires integer");
+                    int slot = variableSlot(toks, i, variables);
+                    if (slot >= 0) {
+                        ops[out] = CompiledExpression.Op.LOAD;
+                        args[out++] = slot;
+                        break;
                     }
-                } else {
-                    return new EvalResult(false, null, "Unknown RPN token: " + t);
+                    CompiledExpression.Op fn = functionOp(toks, i);
+                    if (fn == null)
+                        throw new ParseException("Unknown token: " + toks.text(i), toks.start(i));
+                    stackPos[sp] = toks.start(i);
+                    stack[sp++] = fn;
+                }
+                case NEG -> {
+                    stackPos[sp] = toks.start(i);
+                    stack[sp++] = CompiledExpression.Op.NEG;
+                }
+                case PLUS, MINUS, STAR, SLASH, CARET -> {
+                    CompiledExpression.Op op = switch (kind) {
+                        case PLUS -> CompiledExpression.Op.ADD;
+                        case MINUS -> CompiledExpression.Op.SUB;
+                        case STAR -> CompiledExpression.Op.MUL;
+                        case SLASH -> CompiledExpression.Op.DIV;
+                        default -> CompiledExpression.Op.POW;
+                    };
+                    int p = precedence(op);
+                    while (sp > 0 && stack[sp - 1] != null
+                            && (precedence(stack[sp - 1]) > p
+                                || (precedence(stack[sp - 1]) == p && op != CompiledExpression.Op.POW)))
+                        ops[out++] = stack[--sp];
+                    stackPos[sp] = toks.start(i);
+                    stack[sp++] = op;
+                }
+                case LPAREN -> {
+                    stackPos[sp] = toks.start(i);
+                    stack[sp++] = null;
+                    depth = Math.max(depth, ++open);
+                }
+                case RPAREN -> {
+                    while (sp > 0 && stack[sp - 1] != null) ops[out++] = stack[--sp];
+                    if (sp == 0)
+                        throw new ParseException("Mismatched parentheses", toks.start(i));
+                    sp--;
+                    open--;
+                    if (sp > 0 && stack[sp - 1] != null && precedence(stack[sp - 1]) == 0)
+                        ops[out++] = stack[--sp];
+                }
+                case COMMA -> {
+                    while (sp > 0 && stack[sp - 1] != null) ops[out++] = stack[--sp];
+                    if (sp == 0)
+                        throw new ParseException("Misplaced comma", toks.start(i));
                 }
+                case PERCENT -> ops[out++] = CompiledExpression.Op.PERCENT;
+                case BANG -> ops[out++] = CompiledExpression.Op.FACTORIAL;
             }
-            if (st.size() != 1)
-                return new EvalResult(false, null, "Malformed expression");
-            return new EvalResult(true, st.pop(), null);
-        } catch (Exception ex) {
+        }
+        while (sp > 0) {
+            CompiledExpression.Op op = stack[--sp];
+            if (op == null)
+                throw new ParseException("Mismatched parentheses", stackPos[sp]);
+            ops[out++] = op;
+        }
+        return new CompiledExpression(toks.source(), Arrays.copyOf(ops, out), Arrays.copyOf(args, out),
+                Arrays.copyOf(constants, nconst), variables.toArray(new String[0]), depth, mathContext);
+    }
+
+    private static int variableSlot(Lexer.Tokens toks, int i, List<String> variables) {
+        int len = toks.end(i) - toks.start(i);
+        for (int v = 0; v < variables.size(); v++) {
+            String name = variables.get(v);
+            if (name.length() == len && toks.source().startsWith(name, toks.start(i)))
+                return v;
+        }
+        return -1;
+    }
+
+    /**
+     * Evaluate RPN list and return result or error.
+     */
+    public EvalResult evalRPN(List<String> rpn) {
+        try {
+            return compileRPN(null, rpn).evaluate();
+        } catch (IllegalArgumentException ex) {
             return new EvalResult(false, null, ex.getMessage());
         }
     }
 
     /**
-     * Full pipeline: tokenize -> toRPN -> evalRPN
+     * Full pipeline: tokenize -> toRPN -> compile -> evaluate
      */
     public EvalResult evaluateExpression(String s) {
         try {
-            var tokens = tokenize(s);
-            var rpn = toRPN(tokens);
-            return evalRPN(rpn);
+            return compile(s).evaluate();
+        } catch (ParseException ex) {
+            return new EvalResult(false, null, ex.getMessage(), ex.getPosition());
         } catch (IllegalArgumentException ex) {
             return new EvalResult(false, null, ex.getMessage());
         }
     }
 
+    /**
+     * The result string of {@code v}: its plain form, or its scientific form
+     * when the plain one would be longer than {@value #MAX_PLAIN_LENGTH}
+     * characters (1E+100000 would otherwise expand to 100001).
+     */
+    public static String plain(BigDecimal v) {
+        return plainLength(v) > MAX_PLAIN_LENGTH ? v.toString() : v.toPlainString();
+    }
+
     /**
      * Simple formatter for display.
      */
@@ -334,14 +505,16 @@ public class CalculatorEngine {
         if (v == null)
             return "";
         BigDecimal rounded = v.stripTrailingZeros();
-        String s;
-        try {
-            s = rounded.toPlainString();
-        } catch (Exception e) {
-            s = v.toEngineeringString();
-        }
-        if (s.length() > 20)
-            s = v.toEngineeringString();
-        return s;
+        // the plain string's length follows from precision and scale; only build it if it will be used
+        if (plainLength(rounded) > 20)
+            return v.toEngineeringString();
+        return rounded.toPlainString();
+    }
+
+    /** Length of {@code v.toPlainString()}, without building it. */
+    static long plainLength(BigDecimal v) {
+        long precision = v.precision(), scale = v.scale();
+        long digits = scale <= 0 ? precision - scale : scale < precision ? precision + 1 : scale + 2;
+        return v.signum() < 0 ? digits + 1 : digits;
     }
 }
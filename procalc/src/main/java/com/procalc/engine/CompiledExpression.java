@@ -0,0 +1,472 @@
+package com.procalc.engine;
+
+import com.procalc.engine.CalculatorEngine.EvalResult;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.List;
+
+/**
+ * An expression compiled once into a flat postfix program.
+ * Literals and constants are parsed to BigDecimal at compile time, so evaluating
+ * is a single walk over the opcode array with no string matching.
+ * Instances are immutable and can be evaluated from many threads at once.
+ *
+ * Each program has a static {@link #cost()} estimated from its opcodes and
+ * nesting depth, so callers can refuse expensive input before running it, and
+ * evaluation can be bounded by a step budget that also charges for work that
+ * depends on operand values (factorials, and powers by the size of their
+ * result). Steps spent folding constants at compile time count toward the cost
+ * of the program they produced. Multiplication, division, powers and the
+ * elementary functions are charged more at higher precision, by the ratio to
+ * {@value #BASE_DIGITS} digits raised to the power 1.5: measured BigDecimal sin
+ * grows a little slower than that between 28 and 1000 digits.
+ */
+public final class CompiledExpression {
+
+    enum Op {
+        PUSH, LOAD, ADD, SUB, MUL, DIV, POW, NEG, PERCENT, FACTORIAL,
+        SIN, COS, TAN, SQRT, LOG, LN, ABS, POW_FN,
+        /** Copy the top of the stack into a temp slot, for a subexpression used again later. */
+        STORE,
+        /** Push a value saved by {@link #STORE}. */
+        TEMP
+    }
+
+    /**
+     * Relative cost of each op in {@link Op} order, roughly in units of one
+     * BigDecimal addition at {@value #BASE_DIGITS} digits.
+     */
+    private static final int[] WEIGHTS = {
+        1, 1, 1, 1, 2, 5, 100, 1, 5, 10,   // PUSH LOAD ADD SUB MUL DIV POW NEG PERCENT FACTORIAL
+        100, 100, 100, 20, 100, 100, 1, 100, // SIN COS TAN SQRT LOG LN ABS POW_FN
+        0, 1                                 // STORE TEMP
+    };
+    /** Ops whose weight is multiplied by {@link #precisionScale}, in {@link Op} order. */
+    private static final boolean[] SCALED = {
+        false, false, false, false, true, true, true, false, false, false,
+        true, true, true, true, true, true, false, true,
+        false, false
+    };
+    /** Precision the weights are measured at. */
+    static final int BASE_DIGITS = 28;
+    /** Extra cost per level of parenthesis nesting. */
+    static final int DEPTH_WEIGHT = 4;
+    /** Cap on the steps charged for one op, so sums of charges cannot overflow. */
+    private static final long MAX_OP_STEPS = 1L << 40;
+    static final String BUDGET_MESSAGE = "Step budget exceeded";
+
+    private static final BigDecimal HUNDRED = BigDecimal.valueOf(100);
+    private static final BigDecimal MAX_FACTORIAL = BigDecimal.valueOf(Factorials.MAX);
+    /** Largest n whose factorial is a finite double. */
+    private static final int MAX_DOUBLE_FACTORIAL = 170;
+    private static final double[] DOUBLE_FACTORIALS = new double[MAX_DOUBLE_FACTORIAL + 1];
+
+    static {
+        DOUBLE_FACTORIALS[0] = 1;
+        for (int i = 1; i <= MAX_DOUBLE_FACTORIAL; i++)
+            DOUBLE_FACTORIALS[i] = DOUBLE_FACTORIALS[i - 1] * i;
+    }
+    private static final BigDecimal[] NO_BINDINGS = new BigDecimal[0];
+    private static final double[] NO_DOUBLE_BINDINGS = new double[0];
+
+    private final String source;
+    private final Op[] ops;
+    private final int[] args;
+    private final BigDecimal[] constants;
+    private final double[] doubleConstants;
+    private final String[] variables;
+    private final int maxStack;
+    private final int temps;
+    private final int depth;
+    private final long cost;
+    /** {@link #precisionScale} of {@link #mathContext}. */
+    private final long scale;
+    private final MathContext mathContext;
+
+    CompiledExpression(String source, Op[] ops, int[] args, BigDecimal[] constants, String[] variables,
+            int depth, MathContext mathContext) {
+        this(source, ops, args, constants, variables, depth, 0, 0, mathContext);
+    }
+
+    /** @param foldedSteps steps already spent computing the program's constants */
+    CompiledExpression(String source, Op[] ops, int[] args, BigDecimal[] constants, String[] variables,
+            int depth, int temps, long foldedSteps, MathContext mathContext) {
+        this.temps = temps;
+        this.source = source;
+        this.ops = ops;
+        this.args = args;
+        this.constants = constants;
+        this.doubleConstants = new double[constants.length];
+        for (int i = 0; i < constants.length; i++)
+            doubleConstants[i] = constants[i].doubleValue();
+        this.variables = variables;
+        this.mathContext = mathContext;
+        this.scale = precisionScale(mathContext);
+        this.maxStack = stackDepth(ops);
+        this.depth = depth;
+        long c = (long) DEPTH_WEIGHT * depth + foldedSteps;
+        for (Op op : ops)
+            c += weight(op, scale);
+        this.cost = c;
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    public int size() {
+        return ops.length;
+    }
+
+    /**
+     * Deepest parenthesis nesting in the source (0 when compiled from RPN).
+     */
+    public int depth() {
+        return depth;
+    }
+
+    /**
+     * Estimated evaluation cost: the op weights plus a charge per nesting level,
+     * plus the steps spent folding constants when the program was optimized.
+     * Equals the steps {@link #evaluate(BigDecimal[], long)} uses when no op has
+     * value-dependent cost and nothing was folded.
+     */
+    public long cost() {
+        return cost;
+    }
+
+    /**
+     * Variable names in binding order.
+     */
+    public List<String> getVariables() {
+        return List.of(variables);
+    }
+
+    // Program parts, read by the optimizer
+
+    Op op(int pc) {
+        return ops[pc];
+    }
+
+    int arg(int pc) {
+        return args[pc];
+    }
+
+    BigDecimal constant(int index) {
+        return constants[index];
+    }
+
+    String[] variableNames() {
+        return variables;
+    }
+
+    MathContext mathContext() {
+        return mathContext;
+    }
+
+    /**
+     * Upper bound on the operand stack needed by {@link #evaluate()}.
+     */
+    private static int stackDepth(Op[] ops) {
+        int depth = 0, max = 0;
+        for (Op op : ops) {
+            switch (op) {
+                case PUSH, LOAD, TEMP -> depth++;
+                case ADD, SUB, MUL, DIV, POW, POW_FN -> depth = Math.max(depth - 1, 0);
+                default -> { }
+            }
+            max = Math.max(max, depth);
+        }
+        return max;
+    }
+
+    /**
+     * Run the program and return result or error.
+     */
+    public EvalResult evaluate() {
+        return evaluate(NO_BINDINGS, Long.MAX_VALUE);
+    }
+
+    /**
+     * Run the program with variable values given in {@link #getVariables()} order.
+     * The bindings array is only read, so callers may reuse it between calls.
+     */
+    public EvalResult evaluate(BigDecimal[] bindings) {
+        return evaluate(bindings, Long.MAX_VALUE);
+    }
+
+    /**
+     * Run the program, stopping with an error once more than {@code stepBudget}
+     * steps have been charged.
+     */
+    public EvalResult evaluate(BigDecimal[] bindings, long stepBudget) {
+        BigDecimal[] st = new BigDecimal[Math.max(maxStack, 1)];
+        BigDecimal[] saved = temps == 0 ? null : new BigDecimal[temps];
+        int sp = 0;
+        long steps = (long) DEPTH_WEIGHT * depth;
+        try {
+            for (int pc = 0; pc < ops.length; pc++) {
+                Op op = ops[pc];
+                steps += weight(op, scale);
+                if (sp >= 1)
+                    steps += valueSteps(op, sp >= 2 ? st[sp - 2] : null, st[sp - 1], scale);
+                if (steps > stepBudget)
+                    return new EvalResult(false, null, BUDGET_MESSAGE);
+                switch (op) {
+                    case PUSH -> st[sp++] = constants[args[pc]];
+                    case LOAD -> {
+                        int slot = args[pc];
+                        if (slot >= bindings.length || bindings[slot] == null)
+                            return new EvalResult(false, null, "Unbound variable: " + variables[slot]);
+                        st[sp++] = bindings[slot];
+                    }
+                    case STORE -> saved[args[pc]] = st[sp - 1];
+                    case TEMP -> st[sp++] = saved[args[pc]];
+                    case ADD, SUB, MUL, DIV, POW, POW_FN -> {
+                        if (sp < 2) return new EvalResult(false, null, missingOperand(op));
+                        BigDecimal b = st[--sp];
+                        st[sp - 1] = applyBinary(op, st[sp - 1], b, mathContext);
+                    }
+                    default -> {
+                        if (sp < 1) return new EvalResult(false, null, missingOperand(op));
+                        st[sp - 1] = applyUnary(op, st[sp - 1], mathContext);
+                    }
+                }
+            }
+            if (sp != 1)
+                return new EvalResult(false, null, "Malformed expression");
+            return new EvalResult(true, st[0], null);
+        } catch (Exception ex) {
+            return new EvalResult(false, null, ex.getMessage());
+        }
+    }
+
+    public EvalResult evaluateDouble() {
+        return evaluateDouble(NO_DOUBLE_BINDINGS, Long.MAX_VALUE);
+    }
+
+    public EvalResult evaluateDouble(double[] bindings) {
+        return evaluateDouble(bindings, Long.MAX_VALUE);
+    }
+
+    /**
+     * Run the program in double precision on a primitive stack. Nothing is boxed or
+     * allocated per operation; only the final value is converted for the result.
+     */
+    public EvalResult evaluateDouble(double[] bindings, long stepBudget) {
+        double[] st = new double[Math.max(maxStack, 1)];
+        String error = runDouble(st, bindings, stepBudget);
+        if (error != null)
+            return new EvalResult(false, null, error);
+        if (!Double.isFinite(st[0]))
+            return new EvalResult(false, null, "Result is not a finite number");
+        return new EvalResult(true, BigDecimal.valueOf(st[0]), null);
+    }
+
+    /**
+     * The double-precision value for the given bindings, or NaN where
+     * {@link #evaluateDouble(double[])} would report an error. Nothing but the
+     * operand stack is allocated, which suits sampling one program many times.
+     */
+    public double valueAt(double[] bindings) {
+        double[] st = new double[Math.max(maxStack, 1)];
+        return runDouble(st, bindings, Long.MAX_VALUE) == null ? st[0] : Double.NaN;
+    }
+
+    /** Run in double precision, leaving the result in {@code st[0]}; returns an error message or null. */
+    private String runDouble(double[] st, double[] bindings, long stepBudget) {
+        double[] saved = temps == 0 ? null : new double[temps];
+        int sp = 0;
+        long steps = (long) DEPTH_WEIGHT * depth;
+        for (int pc = 0; pc < ops.length; pc++) {
+            Op op = ops[pc];
+            steps += WEIGHTS[op.ordinal()];
+            if (steps > stepBudget)
+                return BUDGET_MESSAGE;
+            switch (op) {
+                case PUSH -> st[sp++] = doubleConstants[args[pc]];
+                case LOAD -> {
+                    int slot = args[pc];
+                    if (slot >= bindings.length)
+                        return "Unbound variable: " + variables[slot];
+                    st[sp++] = bindings[slot];
+                }
+                case STORE -> saved[args[pc]] = st[sp - 1];
+                case TEMP -> st[sp++] = saved[args[pc]];
+                case NEG -> {
+                    if (sp < 1) return missingOperand(op);
+                    st[sp - 1] = -st[sp - 1];
+                }
+                case PERCENT -> {
+                    if (sp < 1) return missingOperand(op);
+                    st[sp - 1] = st[sp - 1] / 100;
+                }
+                case ADD, SUB, MUL, DIV, POW, POW_FN -> {
+                    if (sp < 2) return missingOperand(op);
+                    double b = st[--sp];
+                    double a = st[sp - 1];
+                    switch (op) {
+                        case ADD -> st[sp - 1] = a + b;
+                        case SUB -> st[sp - 1] = a - b;
+                        case MUL -> st[sp - 1] = a * b;
+                        case DIV -> {
+                            if (b == 0)
+                                return "Division by zero";
+                            st[sp - 1] = a / b;
+                        }
+                        default -> st[sp - 1] = Math.pow(a, b);
+                    }
+                }
+                case SIN, COS, TAN, SQRT, LOG, LN, ABS -> {
+                    if (sp < 1) return missingOperand(op);
+                    double a = st[sp - 1];
+                    switch (op) {
+                        case SIN -> st[sp - 1] = Math.sin(a);
+                        case COS -> st[sp - 1] = Math.cos(a);
+                        case TAN -> st[sp - 1] = Math.tan(a);
+                        case SQRT -> {
+                            if (a < 0) return "sqrt domain error";
+                            st[sp - 1] = Math.sqrt(a);
+                        }
+                        case LOG -> {
+                            if (a <= 0) return "log domain error";
+                            st[sp - 1] = Math.log10(a);
+                        }
+                        case LN -> {
+                            if (a <= 0) return "ln domain error";
+                            st[sp - 1] = Math.log(a);
+                        }
+                        default -> st[sp - 1] = Math.abs(a);
+                    }
+                }
+                case FACTORIAL -> {
+                    if (sp < 1) return missingOperand(op);
+                    double a = st[sp - 1];
+                    if (a != Math.rint(a) || Double.isInfinite(a))
+                        return "factorial requires integer";
+                    if (a < 0) return "factorial domain error";
+                    if (a > MAX_DOUBLE_FACTORIAL) return "factorial too large";
+                    st[sp - 1] = DOUBLE_FACTORIALS[(int) a];
+                }
+            }
+        }
+        return sp == 1 ? null : "Malformed expression";
+    }
+
+    /**
+     * Apply a two-operand op. Errors are thrown as ArithmeticException carrying
+     * the message reported to the user.
+     */
+    static BigDecimal applyBinary(Op op, BigDecimal a, BigDecimal b, MathContext mc) {
+        return switch (op) {
+            case ADD -> a.add(b, mc);
+            case SUB -> a.subtract(b, mc);
+            case MUL -> a.multiply(b, mc);
+            case DIV -> {
+                if (b.signum() == 0)
+                    throw new ArithmeticException("Division by zero");
+                yield a.divide(b, mc);
+            }
+            case POW, POW_FN -> BigMath.pow(a, b, mc);
+            default -> throw new IllegalArgumentException("Not a binary op: " + op);
+        };
+    }
+
+    /** Apply a one-operand op; errors as for {@link #applyBinary}. */
+    static BigDecimal applyUnary(Op op, BigDecimal a, MathContext mc) {
+        return switch (op) {
+            case NEG -> a.negate(mc);
+            case PERCENT -> a.divide(HUNDRED, mc);
+            case SIN -> BigMath.sin(a, mc);
+            case COS -> BigMath.cos(a, mc);
+            case TAN -> BigMath.tan(a, mc);
+            case SQRT -> BigMath.sqrt(a, mc);
+            case LOG -> BigMath.log10(a, mc);
+            case LN -> BigMath.ln(a, mc);
+            case ABS -> a.abs(mc);
+            case FACTORIAL -> {
+                int n;
+                try {
+                    n = a.stripTrailingZeros().intValueExact();
+                } catch (ArithmeticException ex) {
+                    throw new ArithmeticException("factorial requires integer");
+                }
+                if (n < 0) throw new ArithmeticException("factorial domain error");
+                if (n > Factorials.MAX) throw new ArithmeticException("factorial too large");
+                yield new BigDecimal(Factorials.of(n), mc);
+            }
+            default -> throw new IllegalArgumentException("Not a unary op: " + op);
+        };
+    }
+
+    static boolean isBinary(Op op) {
+        return switch (op) {
+            case ADD, SUB, MUL, DIV, POW, POW_FN -> true;
+            default -> false;
+        };
+    }
+
+    /** Error for an op that finds too few operands on the stack. */
+    static String missingOperand(Op op) {
+        return switch (op) {
+            case PERCENT -> "Percent used incorrectly";
+            case POW_FN -> "pow requires 2 args";
+            case SIN, COS, TAN, SQRT, LOG, LN, ABS, FACTORIAL -> functionName(op) + " requires 1 arg";
+            default -> "Malformed expression";
+        };
+    }
+
+    /**
+     * Multiplier for the weights of ops evaluated at {@code mc}: its precision
+     * over {@value #BASE_DIGITS} to the power 1.5, and at least 1.
+     */
+    static long precisionScale(MathContext mc) {
+        double ratio = (double) mc.getPrecision() / BASE_DIGITS;
+        return Math.max(1, (long) (ratio * Math.sqrt(ratio)));
+    }
+
+    /** Weight of {@code op} at a precision with {@link #precisionScale} {@code scale}. */
+    static long weight(Op op, long scale) {
+        int i = op.ordinal();
+        return SCALED[i] ? WEIGHTS[i] * scale : WEIGHTS[i];
+    }
+
+    /**
+     * Steps charged on top of {@link #weight} for ops whose work grows with their
+     * operands: {@code top} is the top of the stack and {@code below} the value
+     * under it (null if there is none).
+     */
+    static long valueSteps(Op op, BigDecimal below, BigDecimal top, long scale) {
+        return switch (op) {
+            case POW, POW_FN -> powerSteps(below, top, scale);
+            case FACTORIAL -> factorialSteps(top);
+            default -> 0;
+        };
+    }
+
+    /**
+     * A power costs a multiplication per bit of the exponent, plus a step per
+     * digit of its result's magnitude, |exponent * log10|base||.
+     */
+    private static long powerSteps(BigDecimal base, BigDecimal exponent, long scale) {
+        int digits = exponent.precision() - exponent.scale();
+        long steps = digits <= 0 ? 0 : (long) digits * 4 * weight(Op.MUL, scale);
+        if (base != null && base.signum() != 0 && exponent.signum() != 0) {
+            double size = Math.abs(exponent.doubleValue() * BigMath.log10Abs(base));
+            steps += size >= MAX_OP_STEPS ? MAX_OP_STEPS : (long) size;
+        }
+        return steps;
+    }
+
+    /** n! is a table lookup once the shared table reaches n; until then, the multiplications to fill it. */
+    private static long factorialSteps(BigDecimal n) {
+        if (n.signum() <= 0 || n.compareTo(MAX_FACTORIAL) > 0)
+            return 0; // rejected before any work
+        return (long) Factorials.missing(n.intValue()) * WEIGHTS[Op.MUL.ordinal()];
+    }
+
+    static String functionName(Op op) {
+        return op == Op.POW_FN ? "pow" : op.name().toLowerCase();
+    }
+}
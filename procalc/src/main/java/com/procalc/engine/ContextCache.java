@@ -0,0 +1,67 @@
+package com.procalc.engine;
+
+import java.math.MathContext;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Per-MathContext objects, at most {@code capacity} of them, evicting the
+ * least recently used context when a new one arrives. A hit is a map read and
+ * a volatile write of the entry's last-use time. A miss creates the object
+ * under a lock, so two requests never build the same context twice, and scans
+ * the entries for the oldest; with a few dozen contexts that costs far less
+ * than creating one.
+ */
+final class ContextCache<V> {
+    private final int capacity;
+    private final Function<MathContext, V> create;
+    private final ConcurrentHashMap<MathContext, Entry<V>> entries = new ConcurrentHashMap<>();
+
+    private static final class Entry<V> {
+        final V value;
+        volatile long used;
+
+        Entry(V value, long used) {
+            this.value = value;
+            this.used = used;
+        }
+    }
+
+    ContextCache(int capacity, Function<MathContext, V> create) {
+        this.capacity = capacity;
+        this.create = create;
+    }
+
+    V get(MathContext mathContext) {
+        Entry<V> e = entries.get(mathContext);
+        if (e == null)
+            return load(mathContext);
+        e.used = System.nanoTime();
+        return e.value;
+    }
+
+    private synchronized V load(MathContext mathContext) {
+        Entry<V> e = entries.get(mathContext);
+        if (e != null)
+            return e.value;
+        V value = create.apply(mathContext);
+        if (entries.size() >= capacity) {
+            MathContext oldest = null;
+            long oldestUse = Long.MAX_VALUE;
+            for (Map.Entry<MathContext, Entry<V>> c : entries.entrySet()) {
+                if (oldest == null || c.getValue().used - oldestUse < 0) {
+                    oldest = c.getKey();
+                    oldestUse = c.getValue().used;
+                }
+            }
+            entries.remove(oldest);
+        }
+        entries.put(mathContext, new Entry<>(value, System.nanoTime()));
+        return value;
+    }
+
+    int size() {
+        return entries.size();
+    }
+}
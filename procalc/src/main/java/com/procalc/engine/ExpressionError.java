@@ -0,0 +1,9 @@
+package com.procalc.engine;
+
+/**
+ * One problem found in an expression: the message reported to the user and the
+ * zero-based character offset it refers to (the input length for "ended too
+ * soon" errors).
+ */
+public record ExpressionError(String message, int position) {
+}
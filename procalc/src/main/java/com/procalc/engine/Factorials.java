@@ -0,0 +1,51 @@
+package com.procalc.engine;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+
+/**
+ * Exact factorials up to {@value #MAX}, computed once and shared. The table is
+ * filled lazily: a request for n extends it to n under a lock, continuing from
+ * the largest factorial already known, and publishes the longer table through a
+ * volatile field, so lookups of filled entries never lock. The whole table holds
+ * about 2.6 million digits at its largest, which bounds both memory and the
+ * total work ever spent on factorials.
+ */
+final class Factorials {
+    /** Largest n whose factorial is available. */
+    static final int MAX = 1000;
+
+    private static volatile BigInteger[] table = { BigInteger.ONE, BigInteger.ONE };
+
+    private Factorials() {
+    }
+
+    /** n! for 0 <= n <= {@link #MAX}. */
+    static BigInteger of(int n) {
+        if (n < 0 || n > MAX)
+            throw new IllegalArgumentException("factorial argument out of range: " + n);
+        BigInteger[] t = table;
+        if (n < t.length)
+            return t[n];
+        return fill(n)[n];
+    }
+
+    /** Multiplications still needed before n! is a lookup (0 once filled). */
+    static int missing(int n) {
+        return Math.max(0, Math.min(n, MAX) + 1 - table.length);
+    }
+
+    private static synchronized BigInteger[] fill(int n) {
+        BigInteger[] t = table;
+        if (n < t.length)
+            return t;
+        int from = t.length;
+        // grow at least geometrically so a rising sequence of n refills rarely
+        int size = Math.min(MAX + 1, Math.max(n + 1, from + from / 2));
+        t = Arrays.copyOf(t, size);
+        for (int i = from; i < size; i++)
+            t[i] = t[i - 1].multiply(BigInteger.valueOf(i));
+        table = t;
+        return t;
+    }
+}
@@ -0,0 +1,333 @@
+package com.procalc.engine;
+
+import com.procalc.engine.CalculatorEngine.EvalResult;
+import com.procalc.engine.CompiledExpression.Op;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.Arrays;
+
+/**
+ * Evaluates successive versions of one expression as it is edited, such as the
+ * live preview while a user types. The parser applies each operator as soon as
+ * shunting-yard would emit it, so the state after every token is a stack of
+ * finished values plus the operators still pending. Both stacks are persistent
+ * linked lists, so keeping the state after each token costs a node or two.
+ *
+ * A new input is compared with the previous one. Tokens ending before the first
+ * changed character keep their state; only the rest is lexed and parsed again.
+ * Values of finished subexpressions are reused, so appending to a long
+ * expression costs the new tokens plus the operators still pending.
+ *
+ * Tokens are checked by the rules of {@link Validator} as they are parsed.
+ * For well-formed input the result equals {@link CompiledExpression#evaluate()}.
+ * Anything else (parse or evaluation errors, an exhausted step budget, nesting
+ * past the depth limit) gives null, and the caller evaluates the input in full
+ * to get the exact error. Ops are applied as they are parsed, so both limits
+ * are checked before each op runs rather than once the input is complete.
+ * Not thread-safe: keep one instance per editing session.
+ */
+public final class IncrementalEvaluator {
+    private static final State START = new State(null, null, 0, 0, 0, 0, true, false);
+
+    private final MathContext mathContext;
+    private final Literals literals;
+    /** {@link CompiledExpression#precisionScale} of the context. */
+    private final long scale;
+    private final long stepBudget;
+    private final int maxDepth;
+
+    private String source = "";
+    private Lexer.Kind[] kinds = new Lexer.Kind[16];
+    private int[] ends = new int[16];
+    /** states[i] is the parse state after the first i tokens. */
+    private State[] states = new State[17];
+    private int size;
+    /** Offset of the first lexer error in {@link #source}, or -1. */
+    private int lexError = -1;
+    private EvalResult result;
+    private long cost;
+    private int depth;
+    private int reused;
+    private int lexed;
+
+    IncrementalEvaluator(MathContext mathContext, long stepBudget, int maxDepth) {
+        this.mathContext = mathContext;
+        this.literals = Literals.of(mathContext);
+        this.scale = CompiledExpression.precisionScale(mathContext);
+        this.stepBudget = stepBudget;
+        this.maxDepth = maxDepth;
+        states[0] = START;
+    }
+
+    /**
+     * Evaluate the new version of the expression, or return null if it does not
+     * evaluate cleanly.
+     */
+    public EvalResult evaluate(String input) {
+        if (input == null)
+            input = "";
+        if (input.equals(source) && size > 0) {
+            reused = size;
+            lexed = 0;
+            return result;
+        }
+        int common = 0, limit = Math.min(source.length(), input.length());
+        while (common < limit && source.charAt(common) == input.charAt(common))
+            common++;
+        // a token ending at the first change could continue into it ("12" -> "123")
+        int keep = size;
+        while (keep > 0 && ends[keep - 1] >= common)
+            keep--;
+        int from = keep == 0 ? 0 : ends[keep - 1];
+        Lexer.Tokens toks = Lexer.lex(input, from, keep == 0 ? null : kinds[keep - 1], literals);
+        // characters before 'from' were not lexed again, so keep an error found there
+        lexError = lexError >= 0 && lexError < from ? lexError : toks.errorPosition();
+        ensureCapacity(keep + toks.size());
+        size = keep;
+        State state = states[keep];
+        for (int i = 0; i < toks.size(); i++) {
+            kinds[size] = toks.kind(i);
+            ends[size] = toks.end(i);
+            state = step(state, toks, i, size == 0 ? null : kinds[size - 1]);
+            states[++size] = state;
+        }
+        source = input;
+        reused = keep;
+        lexed = toks.size();
+        result = lexError >= 0 ? null : finish(state);
+        return result;
+    }
+
+    /** Static cost of the last input as {@link CompiledExpression#cost()} counts it. */
+    public long cost() {
+        return cost;
+    }
+
+    /** Deepest parenthesis nesting of the last input. */
+    public int depth() {
+        return depth;
+    }
+
+    /** Tokens of the last input whose parse state was kept from the one before. */
+    public int reusedTokens() {
+        return reused;
+    }
+
+    /** Tokens of the last input that were lexed and parsed again. */
+    public int lexedTokens() {
+        return lexed;
+    }
+
+    private void ensureCapacity(int n) {
+        if (n <= kinds.length)
+            return;
+        int cap = Math.max(n, kinds.length * 2);
+        kinds = Arrays.copyOf(kinds, cap);
+        ends = Arrays.copyOf(ends, cap);
+        states = Arrays.copyOf(states, cap + 1);
+    }
+
+    /**
+     * Same rules as {@link CalculatorEngine#compile(Lexer.Tokens, java.util.List)}, applying ops as they are
+     * emitted. {@code previous} is the kind of the token before, or null.
+     */
+    private State step(State state, Lexer.Tokens toks, int i, Lexer.Kind previous) {
+        if (state.failed)
+            return state;
+        Parse p = new Parse(state);
+        Lexer.Kind kind = toks.kind(i);
+        // identifiers are values or functions, so a function on top of the stack was the last token
+        Op function = previous == Lexer.Kind.IDENT && p.pending != null && p.pending.op != null
+                && CalculatorEngine.precedence(p.pending.op) == 0 ? p.pending.op : null;
+        if (function == Op.POW_FN && kind != Lexer.Kind.LPAREN)
+            return failed(p);
+        switch (kind) {
+            case NUMBER -> p.push(toks.number(i));
+            case IDENT -> {
+                if (toks.identIs(i, "pi"))
+                    p.push(literals.pi());
+                else if (toks.identIs(i, "e"))
+                    p.push(literals.e());
+                else if (CalculatorEngine.functionOp(toks, i) != null && p.operand)
+                    p.pending = new Pending(CalculatorEngine.functionOp(toks, i), p.pending, null, 0);
+                else
+                    p.failed = true;
+            }
+            case NEG -> p.pending = new Pending(Op.NEG, p.pending, null, 0);
+            case PLUS, MINUS, STAR, SLASH, CARET -> {
+                if (p.operand)
+                    return failed(p);
+                p.operand = true;
+                Op op = switch (kind) {
+                    case PLUS -> Op.ADD;
+                    case MINUS -> Op.SUB;
+                    case STAR -> Op.MUL;
+                    case SLASH -> Op.DIV;
+                    default -> Op.POW;
+                };
+                int prec = CalculatorEngine.precedence(op);
+                while (p.pending != null && p.pending.op != null
+                        && (CalculatorEngine.precedence(p.pending.op) > prec
+                            || (CalculatorEngine.precedence(p.pending.op) == prec && op != Op.POW)))
+                    p.applyPending();
+                p.pending = new Pending(op, p.pending, null, 0);
+            }
+            case LPAREN -> {
+                if (!p.operand)
+                    return failed(p);
+                p.pending = new Pending(null, p.pending, function, 1);
+                p.depth = Math.max(p.depth, ++p.open);
+                if (p.depth > maxDepth)
+                    return failed(p);
+            }
+            case RPAREN -> {
+                p.reduceToParen();
+                if (p.pending == null || p.operand
+                        || (p.pending.call != null && p.pending.args != (p.pending.call == Op.POW_FN ? 2 : 1)))
+                    return failed(p);
+                p.pending = p.pending.below;
+                p.open--;
+                if (p.pending != null && p.pending.op != null && CalculatorEngine.precedence(p.pending.op) == 0)
+                    p.applyPending();
+            }
+            case COMMA -> {
+                p.reduceToParen();
+                if (p.pending == null || p.pending.call == null || p.operand)
+                    return failed(p);
+                p.pending = new Pending(null, p.pending.below, p.pending.call, p.pending.args + 1);
+                p.operand = true;
+            }
+            case PERCENT -> p.postfix(Op.PERCENT);
+            case BANG -> p.postfix(Op.FACTORIAL);
+        }
+        return p.freeze();
+    }
+
+    private static State failed(Parse p) {
+        p.failed = true;
+        return p.freeze();
+    }
+
+    private EvalResult finish(State state) {
+        Parse p = new Parse(state);
+        if (p.operand)
+            p.failed = true;
+        while (p.pending != null && !p.failed) {
+            if (p.pending.op == null)
+                p.failed = true;
+            else
+                p.applyPending();
+        }
+        cost = p.cost + (long) CompiledExpression.DEPTH_WEIGHT * p.depth;
+        depth = p.depth;
+        if (p.failed || p.values == null || p.values.below != null
+                || p.steps + (long) CompiledExpression.DEPTH_WEIGHT * p.depth > stepBudget)
+            return null;
+        return new EvalResult(true, p.values.top, null);
+    }
+
+    /** Operand stack node. */
+    private record Values(BigDecimal top, Values below) {
+    }
+
+    /**
+     * Operator stack node. A null op marks '(', with the function it calls (or
+     * null) and the arguments begun so far.
+     */
+    private record Pending(Op op, Pending below, Op call, int args) {
+    }
+
+    /** {@code operand} is true while an operand must come next. */
+    private record State(Values values, Pending pending, int open, int depth, long cost, long steps,
+            boolean operand, boolean failed) {
+    }
+
+    /** Mutable working copy of a {@link State} while one token is consumed. */
+    private final class Parse {
+        Values values;
+        Pending pending;
+        int open;
+        int depth;
+        long cost;
+        long steps;
+        boolean operand;
+        boolean failed;
+
+        Parse(State s) {
+            values = s.values;
+            pending = s.pending;
+            open = s.open;
+            depth = s.depth;
+            cost = s.cost;
+            steps = s.steps;
+            operand = s.operand;
+            failed = s.failed;
+        }
+
+        State freeze() {
+            return new State(values, pending, open, depth, cost, steps, operand, failed);
+        }
+
+        void push(BigDecimal value) {
+            if (value == null || !operand) { // malformed number, or two operands in a row
+                failed = true;
+                return;
+            }
+            cost += CompiledExpression.weight(Op.PUSH, scale);
+            steps += CompiledExpression.weight(Op.PUSH, scale);
+            values = new Values(value, values);
+            operand = false;
+        }
+
+        /** Percent or factorial, which follow an operand. */
+        void postfix(Op op) {
+            if (operand)
+                failed = true;
+            else
+                apply(op);
+        }
+
+        void reduceToParen() {
+            while (pending != null && pending.op != null && !failed)
+                applyPending();
+        }
+
+        void applyPending() {
+            Op op = pending.op;
+            pending = pending.below;
+            apply(op);
+        }
+
+        void apply(Op op) {
+            if (failed)
+                return;
+            cost += CompiledExpression.weight(op, scale);
+            steps += CompiledExpression.weight(op, scale);
+            if (values != null)
+                steps += CompiledExpression.valueSteps(op, values.below == null ? null : values.below.top, values.top, scale);
+            if (steps + (long) CompiledExpression.DEPTH_WEIGHT * depth > stepBudget) {
+                failed = true;
+                return;
+            }
+            try {
+                if (CompiledExpression.isBinary(op)) {
+                    if (values == null || values.below == null) {
+                        failed = true;
+                        return;
+                    }
+                    BigDecimal r = CompiledExpression.applyBinary(op, values.below.top, values.top, mathContext);
+                    values = new Values(r, values.below.below);
+                } else {
+                    if (values == null) {
+                        failed = true;
+                        return;
+                    }
+                    values = new Values(CompiledExpression.applyUnary(op, values.top, mathContext), values.below);
+                }
+            } catch (RuntimeException ex) {
+                failed = true;
+            }
+        }
+    }
+}
@@ -0,0 +1,277 @@
+package com.procalc.engine;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Single-pass lexer over the input characters. Tokens are stored as parallel
+ * arrays (kind, start and end offsets, parsed number), so no String is created
+ * per token. Numbers are parsed from the shared {@link Literals} pool when they
+ * are first read, so input that fails validation costs no BigDecimal work. Unary
+ * minus is recognised while reading and emitted as {@link Kind#NEG}.
+ * Whitespace is skipped; any other unknown character is recorded as an error
+ * at its offset and then skipped, so lexing always covers the whole input.
+ */
+public final class Lexer {
+
+    public enum Kind {
+        NUMBER, IDENT, PLUS, MINUS, NEG, STAR, SLASH, CARET, LPAREN, RPAREN, COMMA, PERCENT, BANG
+    }
+
+    /** Stands for a malformed number in {@code Tokens.numbers}. */
+    private static final BigDecimal MALFORMED = new BigDecimal(0);
+
+    private Lexer() {
+    }
+
+    /**
+     * Lex the whole input. Never throws: malformed numbers and unknown
+     * characters are recorded in {@link Tokens#errors()}.
+     */
+    public static Tokens lex(String s, MathContext mathContext) {
+        return lex(s, 0, null, Literals.of(mathContext));
+    }
+
+    /**
+     * Lex without parsing numbers, for checks that only need the token kinds
+     * and offsets: {@link Tokens#number(int)} is null for every token, and
+     * malformed numbers are still reported.
+     */
+    public static Tokens scan(String s) {
+        return lex(s, 0, null, null);
+    }
+
+    /**
+     * Lex {@code s} from offset {@code from} as if it followed a token of kind
+     * {@code before} (null at the start of input), for callers that kept the
+     * tokens of an unchanged prefix. Offsets are into the whole of {@code s}.
+     * Numbers are parsed from {@code literals}, or not at all when it is null.
+     */
+    static Tokens lex(String s, int from, Kind before, Literals literals) {
+        Tokens t = new Tokens(s == null ? "" : s, from, before, literals);
+        String src = t.source;
+        int n = src.length();
+        int i = from;
+        while (i < n) {
+            char c = src.charAt(i);
+            if (Character.isDigit(c) || c == '.') {
+                int start = i;
+                int dots = 0;
+                while (i < n && (Character.isDigit(src.charAt(i)) || src.charAt(i) == '.')) {
+                    if (src.charAt(i) == '.') dots++;
+                    i++;
+                }
+                BigDecimal value = null; // parsed on first read
+                if (dots > 1 || i - start == dots) {
+                    t.fail("Invalid number: " + src.substring(start, i), start);
+                    value = MALFORMED;
+                }
+                t.add(Kind.NUMBER, start, i, value);
+            } else if (Character.isAlphabetic(c)) {
+                int start = i;
+                while (i < n && (Character.isAlphabetic(src.charAt(i)) || Character.isDigit(src.charAt(i))))
+                    i++;
+                t.add(Kind.IDENT, start, i, null);
+            } else {
+                Kind k = switch (c) {
+                    case '+' -> Kind.PLUS;
+                    case '-' -> t.unaryContext() ? Kind.NEG : Kind.MINUS;
+                    case '*', '×' -> Kind.STAR;
+                    case '/', '÷' -> Kind.SLASH;
+                    case '^' -> Kind.CARET;
+                    case '(' -> Kind.LPAREN;
+                    case ')' -> Kind.RPAREN;
+                    case ',' -> Kind.COMMA;
+                    case '%' -> Kind.PERCENT;
+                    case '!' -> Kind.BANG;
+                    default -> null;
+                };
+                if (k != null)
+                    t.add(k, i, i + 1, null);
+                else if (!Character.isWhitespace(c))
+                    t.fail("Unknown character: " + src.substring(i, i + Character.charCount(src.codePointAt(i))), i);
+                i += Character.charCount(src.codePointAt(i));
+            }
+        }
+        return t;
+    }
+
+    /**
+     * Lexed tokens of one input. Text is only materialised on request.
+     */
+    public static final class Tokens {
+        private final String source;
+        private Kind[] kinds;
+        private int[] starts;
+        private int[] ends;
+        private BigDecimal[] numbers;
+        private int size;
+        /** Null until the first error. */
+        private List<ExpressionError> errors;
+        private final Kind before;
+        /** Null when lexed by {@link #scan}, which never parses numbers. */
+        private final Literals literals;
+
+        Tokens(String source, int from, Kind before, Literals literals) {
+            this.source = source;
+            this.before = before;
+            this.literals = literals;
+            int cap = Math.max(8, (source.length() - from) / 2);
+            kinds = new Kind[cap];
+            starts = new int[cap];
+            ends = new int[cap];
+            numbers = new BigDecimal[cap];
+        }
+
+        private void add(Kind kind, int start, int end, BigDecimal number) {
+            if (size == kinds.length) {
+                int cap = size * 2;
+                kinds = Arrays.copyOf(kinds, cap);
+                starts = Arrays.copyOf(starts, cap);
+                ends = Arrays.copyOf(ends, cap);
+                numbers = Arrays.copyOf(numbers, cap);
+            }
+            kinds[size] = kind;
+            starts[size] = start;
+            ends[size] = end;
+            numbers[size] = number;
+            size++;
+        }
+
+        private void fail(String message, int position) {
+            if (errors == null)
+                errors = new ArrayList<>(2);
+            errors.add(new ExpressionError(message, position));
+        }
+
+        /** A '-' is unary at the start and after an operator, '(' or ','. */
+        private boolean unaryContext() {
+            Kind previous = size > 0 ? kinds[size - 1] : before;
+            if (previous == null)
+                return true;
+            return switch (previous) {
+                case PLUS, MINUS, NEG, STAR, SLASH, CARET, LPAREN, COMMA -> true;
+                default -> false;
+            };
+        }
+
+        public String source() {
+            return source;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public Kind kind(int i) {
+            return kinds[i];
+        }
+
+        public int start(int i) {
+            return starts[i];
+        }
+
+        public int end(int i) {
+            return ends[i];
+        }
+
+        /**
+         * Parsed value of a NUMBER token, or null if it was malformed or the
+         * input was only scanned.
+         */
+        public BigDecimal number(int i) {
+            BigDecimal v = numbers[i];
+            if (v == null && kinds[i] == Kind.NUMBER && literals != null)
+                numbers[i] = v = literals.parse(source, starts[i], ends[i]);
+            return v == MALFORMED ? null : v;
+        }
+
+        /** True if token {@code i} is an identifier equal to {@code name}, ignoring case. */
+        public boolean identIs(int i, String name) {
+            return kinds[i] == Kind.IDENT && ends[i] - starts[i] == name.length()
+                    && source.regionMatches(true, starts[i], name, 0, name.length());
+        }
+
+        /**
+         * Token text in normalised spelling: × and ÷ become * and /, unary minus is "~".
+         */
+        public String text(int i) {
+            return switch (kinds[i]) {
+                case NUMBER, IDENT -> source.substring(starts[i], ends[i]);
+                default -> symbol(kinds[i]);
+            };
+        }
+
+        /**
+         * Normalised token sequence joined by single spaces; equal for inputs that
+         * differ only in whitespace or operator spelling. Characters the lexer
+         * rejected are left out, so the key only identifies input without
+         * {@link #errors()}.
+         */
+        public String key() {
+            StringBuilder sb = new StringBuilder(source.length() + 8);
+            for (int i = 0; i < size; i++) {
+                if (i > 0) sb.append(' ');
+                if (kinds[i] == Kind.NUMBER || kinds[i] == Kind.IDENT)
+                    sb.append(source, starts[i], ends[i]);
+                else
+                    sb.append(symbol(kinds[i]));
+            }
+            return sb.toString();
+        }
+
+        /**
+         * Index of the token containing {@code offset}, or else of the first token
+         * after it ({@link #size()} past the last one). With {@link #offsetOf} it
+         * carries an error position over to another input with the same
+         * {@link #key()}, whose whitespace may differ.
+         */
+        public int tokenAt(int offset) {
+            int i = Arrays.binarySearch(starts, 0, size, offset);
+            if (i >= 0)
+                return i;
+            i = -i - 2; // the last token starting before offset
+            return i >= 0 && offset < ends[i] ? i : i + 1;
+        }
+
+        /** Start of token {@code i}, or the input length for {@link #size()}. */
+        public int offsetOf(int i) {
+            return i < size ? starts[i] : source.length();
+        }
+
+        /** Message of the first error, or null if the input lexed cleanly. */
+        public String errorMessage() {
+            return errors == null ? null : errors.get(0).message();
+        }
+
+        /** Offset of the first error, or -1. */
+        public int errorPosition() {
+            return errors == null ? -1 : errors.get(0).position();
+        }
+
+        /** Every error in input order. */
+        public List<ExpressionError> errors() {
+            return errors == null ? List.of() : errors;
+        }
+
+        private static String symbol(Kind k) {
+            return switch (k) {
+                case PLUS -> "+";
+                case MINUS -> "-";
+                case NEG -> "~";
+                case STAR -> "*";
+                case SLASH -> "/";
+                case CARET -> "^";
+                case LPAREN -> "(";
+                case RPAREN -> ")";
+                case COMMA -> ",";
+                case PERCENT -> "%";
+                case BANG -> "!";
+                default -> "";
+            };
+        }
+    }
+}
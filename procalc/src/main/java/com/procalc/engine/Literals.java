@@ -0,0 +1,94 @@
+package com.procalc.engine;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+
+/**
+ * Parsed numeric literals and named constants for one MathContext, shared by
+ * every engine and request using that context.
+ *
+ * Integers below {@value #SMALL} are parsed once up front and found without
+ * allocating. Other literals go through a fixed-size, direct-mapped intern
+ * table hashed on the literal's characters: a hit returns the BigDecimal parsed
+ * earlier, and a miss parses the literal and takes over the slot. The table
+ * never grows, and a lookup neither locks nor creates a String. pi and e are
+ * rounded to the context once, on first use.
+ *
+ * Instances for the {@value #MAX_CONTEXTS} most recently used contexts are
+ * kept; an older one is dropped when a new context arrives.
+ */
+final class Literals {
+    /** Integer literals below this come from a preparsed table. */
+    static final int SMALL = 1024;
+    private static final int SLOTS = 4096; // power of two
+    /** Contexts whose instances are kept. */
+    static final int MAX_CONTEXTS = 64;
+    private static final ContextCache<Literals> BY_CONTEXT = new ContextCache<>(MAX_CONTEXTS, Literals::new);
+
+    private final MathContext mathContext;
+    private final BigDecimal[] small = new BigDecimal[SMALL];
+    /** Entries are immutable, so a racy read sees a complete entry or none. */
+    private final Entry[] slots = new Entry[SLOTS];
+    private volatile BigDecimal pi;
+    private volatile BigDecimal e;
+
+    private record Entry(String text, BigDecimal value) {
+    }
+
+    private Literals(MathContext mathContext) {
+        this.mathContext = mathContext;
+        for (int i = 0; i < SMALL; i++)
+            small[i] = new BigDecimal(Integer.toString(i), mathContext);
+    }
+
+    static Literals of(MathContext mathContext) {
+        return BY_CONTEXT.get(mathContext);
+    }
+
+    static int cachedContexts() {
+        return BY_CONTEXT.size();
+    }
+
+    /** The value of the well-formed literal {@code src[start, end)}, rounded to the context. */
+    BigDecimal parse(String src, int start, int end) {
+        int len = end - start;
+        if (len <= 4) {
+            int v = 0;
+            for (int i = start; i < end && v >= 0; i++) {
+                char c = src.charAt(i);
+                v = c >= '0' && c <= '9' ? v * 10 + (c - '0') : -1;
+            }
+            if (v >= 0 && v < SMALL)
+                return small[v];
+        }
+        int h = 0;
+        for (int i = start; i < end; i++)
+            h = 31 * h + src.charAt(i);
+        int slot = (h ^ (h >>> 16)) & (SLOTS - 1);
+        Entry entry = slots[slot];
+        if (entry != null && entry.text.length() == len && src.regionMatches(start, entry.text, 0, len))
+            return entry.value;
+        String text = src.substring(start, end);
+        BigDecimal value = new BigDecimal(text, mathContext);
+        slots[slot] = new Entry(text, value);
+        return value;
+    }
+
+    BigDecimal parse(String text) {
+        return parse(text, 0, text.length());
+    }
+
+    BigDecimal pi() {
+        BigDecimal v = pi;
+        if (v == null)
+            pi = v = BigMath.pi(mathContext);
+        return v;
+    }
+
+    BigDecimal e() {
+        BigDecimal v = e;
+        if (v == null)
+            e = v = BigMath.e(mathContext);
+        return v;
+    }
+}
@@ -0,0 +1,237 @@
+package com.procalc.engine;
+
+import com.procalc.engine.CompiledExpression.Op;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Rewrites a compiled program into a smaller one with the same results.
+ * The postfix program is rebuilt as a DAG whose nodes are hash-consed, so
+ * identical subexpressions become one node. On the way:
+ * <ul>
+ *   <li>ops whose operands are all constants are evaluated once, as long as
+ *       that succeeds and the work stays within the fold budget (a failing op is
+ *       kept so its error is still reported when the program runs, and is
+ *       charged then). The steps of folded ops are added to the optimized
+ *       program's cost;</li>
+ *   <li>x*1, 1*x, x/1, x^1, pow(x, 1) and --x become x when x is already
+ *       rounded to the program's MathContext, so skipping the op changes neither
+ *       the value nor its scale. Bound variables may carry more digits than the
+ *       context and are left alone. x+0 is not rewritten: adding a zero of scale
+ *       0 lifts a negative scale, which shows in the plain-string result.</li>
+ * </ul>
+ * The DAG is emitted back in the original evaluation order. A shared node is
+ * computed where it first occurs, saved with {@link Op#STORE} and read back with
+ * {@link Op#TEMP}, so errors surface in the same order as before.
+ */
+final class Optimizer {
+    private static final int NONE = -1;
+
+    private final MathContext mathContext;
+    private final long scale;
+    private final long foldBudget;
+    private long folded;
+
+    // DAG nodes as parallel lists; PUSH nodes hold a value, LOAD nodes a slot
+    private final List<Op> ops = new ArrayList<>();
+    private final List<BigDecimal> values = new ArrayList<>();
+    private int[] args = new int[16];
+    private int[] lefts = new int[16];
+    private int[] rights = new int[16];
+    private final Map<Key, Integer> interned = new HashMap<>();
+
+    private record Key(Op op, int arg, int left, int right, BigDecimal value) {
+    }
+
+    Optimizer(MathContext mathContext, long foldBudget) {
+        this.mathContext = mathContext;
+        this.scale = CompiledExpression.precisionScale(mathContext);
+        this.foldBudget = foldBudget;
+    }
+
+    /**
+     * The optimized program, or {@code program} itself when it is malformed and
+     * must fail exactly as written.
+     */
+    CompiledExpression optimize(CompiledExpression program) {
+        int[] stack = new int[Math.max(program.size(), 1)];
+        int sp = 0;
+        for (int pc = 0; pc < program.size(); pc++) {
+            Op op = program.op(pc);
+            switch (op) {
+                case PUSH -> stack[sp++] = constant(program.constant(program.arg(pc)));
+                case LOAD -> stack[sp++] = node(Op.LOAD, program.arg(pc), NONE, NONE, null);
+                case STORE, TEMP -> {
+                    return program; // already optimized
+                }
+                default -> {
+                    if (CompiledExpression.isBinary(op)) {
+                        if (sp < 2)
+                            return program;
+                        int b = stack[--sp];
+                        int a = stack[--sp];
+                        stack[sp++] = combine(op, a, b);
+                    } else {
+                        if (sp < 1)
+                            return program;
+                        int a = stack[--sp];
+                        stack[sp++] = combine(op, a, NONE);
+                    }
+                }
+            }
+        }
+        if (sp != 1)
+            return program;
+        return emit(program, stack[0]);
+    }
+
+    private int combine(Op op, int a, int b) {
+        // identities that return an operand unchanged
+        boolean unit = op == Op.MUL || op == Op.DIV || op == Op.POW || op == Op.POW_FN;
+        if (unit && rounded(a) && isExactly(b, BigDecimal.ONE))
+            return a;
+        if (op == Op.MUL && rounded(b) && isExactly(a, BigDecimal.ONE))
+            return b;
+        if (op == Op.NEG && ops.get(a) == Op.NEG && rounded(lefts[a]))
+            return lefts[a];
+
+        if (ops.get(a) == Op.PUSH && (b == NONE || ops.get(b) == Op.PUSH)) {
+            BigDecimal below = b == NONE ? null : values.get(a);
+            BigDecimal top = values.get(b == NONE ? a : b);
+            long steps = CompiledExpression.weight(op, scale) + CompiledExpression.valueSteps(op, below, top, scale);
+            if (folded + steps <= foldBudget) {
+                try {
+                    BigDecimal v = b == NONE
+                            ? CompiledExpression.applyUnary(op, values.get(a), mathContext)
+                            : CompiledExpression.applyBinary(op, values.get(a), values.get(b), mathContext);
+                    folded += steps;
+                    return constant(v);
+                } catch (RuntimeException ex) {
+                    // keep the op: the error belongs to evaluation
+                }
+            }
+        }
+        return node(op, NONE, a, b, null);
+    }
+
+    /** True if the node's value already fits the context, so an identity op would return it unchanged. */
+    private boolean rounded(int n) {
+        return switch (ops.get(n)) {
+            case LOAD -> false;
+            case PUSH -> mathContext.getPrecision() == 0 || values.get(n).precision() <= mathContext.getPrecision();
+            default -> true;
+        };
+    }
+
+    /** A constant equal to {@code v} with the same scale, so using it adds no digits. */
+    private boolean isExactly(int n, BigDecimal v) {
+        return n != NONE && ops.get(n) == Op.PUSH && values.get(n).equals(v);
+    }
+
+    private int constant(BigDecimal v) {
+        return node(Op.PUSH, NONE, NONE, NONE, v);
+    }
+
+    private int node(Op op, int arg, int left, int right, BigDecimal value) {
+        Key key = new Key(op, arg, left, right, value);
+        Integer existing = interned.get(key);
+        if (existing != null)
+            return existing;
+        int id = ops.size();
+        if (id == args.length) {
+            args = Arrays.copyOf(args, id * 2);
+            lefts = Arrays.copyOf(lefts, id * 2);
+            rights = Arrays.copyOf(rights, id * 2);
+        }
+        ops.add(op);
+        values.add(value);
+        args[id] = arg;
+        lefts[id] = left;
+        rights[id] = right;
+        interned.put(key, id);
+        return id;
+    }
+
+    /** Write the DAG under {@code root} back as a postfix program. */
+    private CompiledExpression emit(CompiledExpression program, int root) {
+        int n = ops.size();
+        // references from nodes reachable from the root; two or more means shared
+        int[] refs = new int[n];
+        boolean[] reached = new boolean[n];
+        int[] work = new int[n];
+        int wp = 0;
+        work[wp++] = root;
+        reached[root] = true;
+        while (wp > 0) {
+            int id = work[--wp];
+            for (int side = 0; side < 2; side++) {
+                int child = side == 0 ? lefts[id] : rights[id];
+                if (child == NONE)
+                    continue;
+                refs[child]++;
+                if (!reached[child]) {
+                    reached[child] = true;
+                    work[wp++] = child;
+                }
+            }
+        }
+
+        Op[] out = new Op[program.size() + n + 1];
+        int[] outArgs = new int[out.length];
+        List<BigDecimal> constants = new ArrayList<>();
+        int[] constantIndex = new int[n];
+        Arrays.fill(constantIndex, NONE);
+        int[] slot = new int[n];
+        Arrays.fill(slot, NONE);
+        int temps = 0, pc = 0;
+
+        // post-order walk; ~id marks "children done, emit the op"
+        work = new int[8];
+        wp = 0;
+        work[wp++] = root;
+        while (wp > 0) {
+            int x = work[--wp];
+            if (x >= 0) {
+                Op op = ops.get(x);
+                if (slot[x] != NONE) {
+                    out[pc] = Op.TEMP;
+                    outArgs[pc++] = slot[x];
+                } else if (op == Op.PUSH) {
+                    if (constantIndex[x] == NONE) {
+                        constantIndex[x] = constants.size();
+                        constants.add(values.get(x));
+                    }
+                    out[pc] = Op.PUSH;
+                    outArgs[pc++] = constantIndex[x];
+                } else if (op == Op.LOAD) {
+                    out[pc] = Op.LOAD;
+                    outArgs[pc++] = args[x];
+                } else {
+                    if (wp + 3 > work.length)
+                        work = Arrays.copyOf(work, work.length * 2);
+                    work[wp++] = ~x;
+                    if (rights[x] != NONE)
+                        work[wp++] = rights[x];
+                    work[wp++] = lefts[x];
+                }
+            } else {
+                int id = ~x;
+                out[pc++] = ops.get(id);
+                if (refs[id] > 1) {
+                    slot[id] = temps++;
+                    out[pc] = Op.STORE;
+                    outArgs[pc++] = slot[id];
+                }
+            }
+        }
+        return new CompiledExpression(program.getSource(), Arrays.copyOf(out, pc), Arrays.copyOf(outArgs, pc),
+                constants.toArray(new BigDecimal[0]), program.variableNames(), program.depth(), temps, folded,
+                program.mathContext());
+    }
+}
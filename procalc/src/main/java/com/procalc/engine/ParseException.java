@@ -0,0 +1,18 @@
+package com.procalc.engine;
+
+/**
+ * Parse error carrying the character offset in the input where it was found.
+ */
+public class ParseException extends IllegalArgumentException {
+    private final int position;
+
+    public ParseException(String message, int position) {
+        super(message);
+        this.position = position;
+    }
+
+    /** Zero-based offset into the original input, or -1 if unknown. */
+    public int getPosition() {
+        return position;
+    }
+}
@@ -0,0 +1,170 @@
+package com.procalc.engine;
+
+import com.procalc.engine.CompiledExpression.Op;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Structural check of lexed tokens, run before any program is built or any
+ * value computed. A single pass tracks whether an operand or an operator comes
+ * next and which parentheses are open, and finds unknown symbols, operators
+ * missing an operand, operands missing an operator between them, unbalanced
+ * parentheses, stray commas and functions called with the wrong number of
+ * arguments. After an error it carries on as if the input were well formed
+ * there, so one pass reports every problem with its offset.
+ *
+ * Input that passes compiles, and its program never runs short of operands or
+ * ends with more than one value. Errors that depend on values (division by
+ * zero, domain errors) are left to evaluation.
+ */
+final class Validator {
+    /** Errors reported for one input; the rest are dropped. */
+    static final int MAX_ERRORS = 20;
+    static final String MISSING_OPERATOR = "Missing operator";
+    static final String MALFORMED = "Malformed expression";
+    static final String PARENTHESES = "Mismatched parentheses";
+    static final String COMMA = "Misplaced comma";
+
+    private final Lexer.Tokens toks;
+    private final List<String> variables;
+    private final List<ExpressionError> errors = new ArrayList<>();
+
+    // open parentheses: the function called (null for grouping), arguments so far, offsets
+    private Op[] frameFn = new Op[8];
+    private int[] frameArgs = new int[8];
+    private int[] frameParen = new int[8];
+    private int[] frameName = new int[8];
+    private int fp;
+
+    private Validator(Lexer.Tokens toks, List<String> variables) {
+        this.toks = toks;
+        this.variables = variables;
+    }
+
+    /** Every problem in {@code toks}, lexer errors included, in input order. */
+    static List<ExpressionError> validate(Lexer.Tokens toks, List<String> variables) {
+        return new Validator(toks, variables).run();
+    }
+
+    private List<ExpressionError> run() {
+        errors.addAll(toks.errors());
+        boolean operand = true; // an operand must come next
+        Op function = null; // function name waiting for '(' or a bare operand
+        int functionAt = -1;
+        for (int i = 0; i < toks.size(); i++) {
+            Lexer.Kind kind = toks.kind(i);
+            int at = toks.start(i);
+            if (function != null && kind != Lexer.Kind.LPAREN) {
+                // "sin 2": a one-argument function applies to the operand that follows
+                if (function == Op.POW_FN)
+                    error(CompiledExpression.missingOperand(function), functionAt);
+                function = null;
+            }
+            switch (kind) {
+                case NUMBER -> operand = value(operand, at);
+                case IDENT -> {
+                    Op fn = CalculatorEngine.functionOp(toks, i);
+                    if (fn != null && !isVariable(i)) {
+                        if (!operand)
+                            error(MISSING_OPERATOR, at);
+                        function = fn;
+                        functionAt = at;
+                        operand = true;
+                    } else {
+                        if (fn == null && !toks.identIs(i, "pi") && !toks.identIs(i, "e") && !isVariable(i))
+                            error("Unknown token: " + toks.text(i), at);
+                        operand = value(operand, at);
+                    }
+                }
+                case NEG -> operand = true;
+                case PLUS, MINUS, STAR, SLASH, CARET -> {
+                    if (operand)
+                        error(MALFORMED, at);
+                    operand = true;
+                }
+                case LPAREN -> {
+                    if (!operand)
+                        error(MISSING_OPERATOR, at);
+                    open(function, at, function != null ? functionAt : at);
+                    function = null;
+                    operand = true;
+                }
+                case RPAREN -> {
+                    if (fp == 0) {
+                        error(PARENTHESES, at);
+                    } else {
+                        fp--;
+                        Op fn = frameFn[fp];
+                        int wanted = fn == Op.POW_FN ? 2 : 1;
+                        if (fn != null && (operand || frameArgs[fp] != wanted))
+                            error(CompiledExpression.missingOperand(fn), frameName[fp]);
+                        else if (operand)
+                            error(MALFORMED, at);
+                    }
+                    operand = false;
+                }
+                case COMMA -> {
+                    if (fp == 0 || frameFn[fp - 1] == null) {
+                        error(COMMA, at);
+                    } else {
+                        if (operand)
+                            error(CompiledExpression.missingOperand(frameFn[fp - 1]), frameName[fp - 1]);
+                        frameArgs[fp - 1]++;
+                    }
+                    operand = true;
+                }
+                case PERCENT, BANG -> {
+                    if (operand)
+                        error(CompiledExpression.missingOperand(kind == Lexer.Kind.PERCENT ? Op.PERCENT : Op.FACTORIAL), at);
+                    operand = false;
+                }
+            }
+        }
+        if (function != null)
+            error(CompiledExpression.missingOperand(function), functionAt);
+        else if (operand)
+            error(MALFORMED, toks.source().length());
+        while (fp > 0)
+            error(PARENTHESES, frameParen[--fp]);
+
+        if (errors.isEmpty())
+            return List.of();
+        errors.sort(Comparator.comparingInt(ExpressionError::position));
+        return errors.size() > MAX_ERRORS ? List.copyOf(errors.subList(0, MAX_ERRORS)) : errors;
+    }
+
+    /** An operand: fine where one was expected, otherwise two operands are adjacent. */
+    private boolean value(boolean expected, int at) {
+        if (!expected)
+            error(MISSING_OPERATOR, at);
+        return false;
+    }
+
+    private boolean isVariable(int i) {
+        for (String v : variables)
+            if (toks.end(i) - toks.start(i) == v.length() && toks.source().startsWith(v, toks.start(i)))
+                return true;
+        return false;
+    }
+
+    private void open(Op fn, int paren, int name) {
+        if (fp == frameFn.length) {
+            frameFn = Arrays.copyOf(frameFn, fp * 2);
+            frameArgs = Arrays.copyOf(frameArgs, fp * 2);
+            frameParen = Arrays.copyOf(frameParen, fp * 2);
+            frameName = Arrays.copyOf(frameName, fp * 2);
+        }
+        frameFn[fp] = fn;
+        frameArgs[fp] = 1;
+        frameParen[fp] = paren;
+        frameName[fp] = name;
+        fp++;
+    }
+
+    private void error(String message, int position) {
+        errors.add(new ExpressionError(message, position));
+    }
+}
@@ -0,0 +1,11 @@
+package com.procalc.exception;
+
+/**
+ * Thrown when the node is saturated and refuses new work; mapped to
+ * 429 Too Many Requests so clients back off and retry.
+ */
+public class OverloadedException extends RuntimeException {
+    public OverloadedException(String message) {
+        super(message);
+    }
+}
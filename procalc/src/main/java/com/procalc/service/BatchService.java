@@ -0,0 +1,146 @@
+package com.procalc.service;
+
+import com.procalc.dto.EvaluateResponse;
+import com.procalc.engine.CompiledExpression;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.IntFunction;
+
+/**
+ * Evaluates many expressions at once by fanning chunks out over the shared
+ * compute pool ({@link ComputeService#submitAll}), each chunk holding one of its
+ * permits, so a busy node sheds batches with 429 like single evaluations. Each
+ * item goes through {@link EngineService#evaluate(String)}, so batch items share
+ * the result cache with single evaluations.
+ */
+@Service
+public class BatchService {
+    private static final String TIMEOUT_MESSAGE = "Batch time limit exceeded";
+
+    private final EngineService engineService;
+    private final ComputeService computeService;
+    private final int maxSize;
+    private final long timeoutMillis;
+
+    public BatchService(EngineService engineService, ComputeService computeService,
+            @Value("${procalc.batch.max-size:10000}") int maxSize,
+            @Value("${procalc.batch.timeout-ms:5000}") long timeoutMillis) {
+        this.engineService = engineService;
+        this.computeService = computeService;
+        this.maxSize = maxSize;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Evaluate all expressions and return results in input order. Items not reached
+     * before the batch deadline come back as errors instead of failing the batch.
+     */
+    public List<EvaluateResponse> evaluateAll(List<String> expressions) {
+        if (expressions == null)
+            throw new IllegalArgumentException("expressions is required");
+        checkSize(expressions.size());
+        return runChunked(expressions.size(),
+                start -> i -> engineService.evaluate(expressions.get(i)),
+                i -> timedOut(expressions.get(i)));
+    }
+
+    /**
+     * Compile the expression once and evaluate it for every row of the columnar
+     * bindings, in parallel. Results are returned in row order.
+     */
+    public List<EvaluateResponse> evaluateColumns(String expression, Map<String, List<BigDecimal>> bindings) {
+        if (bindings == null)
+            bindings = Map.of();
+        List<String> names = new ArrayList<>(bindings.keySet());
+        CompiledExpression compiled = engineService.compile(expression, names);
+
+        int vars = names.size();
+        BigDecimal[][] columns = new BigDecimal[vars][];
+        int rows = -1;
+        for (int v = 0; v < vars; v++) {
+            List<BigDecimal> column = bindings.get(names.get(v));
+            if (column == null)
+                throw new IllegalArgumentException("Missing values for variable: " + names.get(v));
+            if (rows >= 0 && column.size() != rows)
+                throw new IllegalArgumentException("All variables must have the same number of values");
+            rows = column.size();
+            columns[v] = column.toArray(new BigDecimal[0]);
+        }
+        if (rows < 0)
+            rows = 1;
+        checkSize(rows);
+
+        return runChunked(rows, start -> {
+            // One row buffer per chunk; evaluate() only reads it
+            BigDecimal[] row = new BigDecimal[vars];
+            return i -> {
+                for (int v = 0; v < vars; v++)
+                    row[v] = columns[v][i];
+                return engineService.evaluateRow(compiled, row);
+            };
+        }, i -> timedOut(null));
+    }
+
+    private void checkSize(int n) {
+        if (n > maxSize)
+            throw new IllegalArgumentException("Batch too large: " + n + " > " + maxSize);
+    }
+
+    /**
+     * Run {@code n} items in chunks on the pool. {@code chunkWorker} is called once
+     * per chunk with its start index and returns the per-item function, so chunks
+     * can keep scratch state. Items not done by the deadline get {@code onTimeout};
+     * chunks stop at the deadline on their own and return their permits.
+     */
+    private List<EvaluateResponse> runChunked(int n, IntFunction<IntFunction<EvaluateResponse>> chunkWorker,
+            IntFunction<EvaluateResponse> onTimeout) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        AtomicReferenceArray<EvaluateResponse> out = new AtomicReferenceArray<>(n);
+
+        int chunks = computeService.chunks(n);
+        int chunk = Math.max(1, (n + chunks - 1) / chunks);
+        List<Runnable> work = new ArrayList<>();
+        for (int from = 0; from < n; from += chunk) {
+            int start = from, end = Math.min(n, from + chunk);
+            work.add(() -> {
+                if (System.nanoTime() >= deadline)
+                    return;
+                IntFunction<EvaluateResponse> item = chunkWorker.apply(start);
+                for (int i = start; i < end && System.nanoTime() < deadline; i++)
+                    out.set(i, item.apply(i));
+            });
+        }
+        for (Future<?> f : computeService.submitAll(work)) {
+            try {
+                f.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (Exception e) {
+                // timed out or failed: the chunk's items report onTimeout
+            }
+        }
+
+        EvaluateResponse[] results = new EvaluateResponse[n];
+        for (int i = 0; i < n; i++) {
+            EvaluateResponse r = out.get(i);
+            results[i] = r != null ? r : onTimeout.apply(i);
+        }
+        return Arrays.asList(results);
+    }
+
+    private static EvaluateResponse timedOut(String expression) {
+        EvaluateResponse r = new EvaluateResponse(expression, null, null, "ERROR");
+        r.setMessage(TIMEOUT_MESSAGE);
+        return r;
+    }
+}
@@ -0,0 +1,92 @@
+package com.procalc.service;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Per-client state with idle eviction. Lookups are a ConcurrentHashMap get plus
+ * a volatile timestamp write; an occasional sweep drops clients idle longer than
+ * the TTL, and the client count is capped by evicting the least recently used.
+ * Past the cap the oldest tenth of the clients goes at once, so the sort that
+ * finds them runs once per that many new clients rather than once each.
+ */
+class ClientRegistry<T> {
+    /** Fraction of the cap, as a divisor, evicted when a new client passes it. */
+    private static final int EVICT_DIVISOR = 10;
+
+    private final ConcurrentHashMap<String, Slot<T>> clients = new ConcurrentHashMap<>();
+    private final Supplier<T> factory;
+    private final int maxClients;
+    private final long idleNanos;
+    private final AtomicLong lastSweep = new AtomicLong(System.nanoTime());
+    private final AtomicBoolean evicting = new AtomicBoolean();
+
+    private static final class Slot<T> {
+        final T value;
+        volatile long lastAccess = System.nanoTime();
+
+        Slot(T value) {
+            this.value = value;
+        }
+    }
+
+    ClientRegistry(Supplier<T> factory, int maxClients, long idleMillis) {
+        this.factory = factory;
+        this.maxClients = maxClients;
+        this.idleNanos = idleMillis * 1_000_000L;
+    }
+
+    /** State for the client, created on first use. */
+    T get(String clientId) {
+        long now = System.nanoTime();
+        Slot<T> slot = clients.get(clientId);
+        if (slot == null) {
+            slot = clients.computeIfAbsent(clientId, k -> new Slot<>(factory.get()));
+            if (clients.size() > maxClients && evicting.compareAndSet(false, true)) {
+                try {
+                    sweep(now, true);
+                } finally {
+                    evicting.set(false);
+                }
+            }
+        }
+        slot.lastAccess = now;
+        long last = lastSweep.get();
+        if (now - last > idleNanos / 4 && lastSweep.compareAndSet(last, now))
+            sweep(now, false);
+        return slot.value;
+    }
+
+    /** State for the client if it exists, without creating it. */
+    T peek(String clientId) {
+        Slot<T> slot = clients.get(clientId);
+        if (slot == null)
+            return null;
+        slot.lastAccess = System.nanoTime();
+        return slot.value;
+    }
+
+    int size() {
+        return clients.size();
+    }
+
+    /**
+     * Drop idle clients; when still over the cap, drop the least recently used
+     * ones down to nine tenths of it.
+     */
+    private void sweep(long now, boolean enforceCap) {
+        clients.values().removeIf(s -> now - s.lastAccess > idleNanos);
+        if (!enforceCap || clients.size() <= maxClients)
+            return;
+        long[] accessed = clients.values().stream().mapToLong(s -> s.lastAccess).toArray();
+        int evict = accessed.length - maxClients + Math.max(1, maxClients / EVICT_DIVISOR);
+        if (evict <= 0)
+            return;
+        Arrays.sort(accessed);
+        long cutoff = accessed[Math.min(evict, accessed.length) - 1];
+        clients.values().removeIf(s -> s.lastAccess - cutoff <= 0);
+    }
+}
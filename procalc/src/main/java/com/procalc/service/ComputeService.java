@@ -0,0 +1,297 @@
+package com.procalc.service;
+
+import com.procalc.dto.EvaluateResponse;
+import com.procalc.dto.ResponseShape;
+import com.procalc.engine.CalculatorEngine;
+import com.procalc.exception.OverloadedException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.math.MathContext;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs single evaluations on a bounded ForkJoin compute pool, so request threads
+ * (virtual threads on Java 21) only wait and a burst of heavy expressions cannot
+ * occupy the web server's threads. At most {@code max-pending} evaluations are
+ * queued or running; beyond that requests are shed with an
+ * {@link OverloadedException} (429). Each wait has a timeout,
+ * and a new preview from a client cancels that client's previous one.
+ *
+ * Handing work to the pool costs a thread switch, which is more than a short
+ * expression takes to evaluate, so short expressions without powers or
+ * factorials are evaluated inline on the request thread, unless they ask for
+ * more than the default precision.
+ *
+ * Every other path that evaluates draws on the same permits: batch and plot
+ * chunks run on this pool through {@link #submitAll}, and work that stays on
+ * the request thread (inline evaluations, streams, binary frames, preview
+ * sessions) holds a {@link Permit} while it runs. A saturated node therefore
+ * sheds all of them.
+ */
+@Service
+public class ComputeService {
+    static final String BUSY_MESSAGE = "Server busy";
+    static final String TIMEOUT_MESSAGE = "Evaluation timed out";
+    static final String SUPERSEDED_MESSAGE = "Superseded by a newer preview";
+
+    private final EngineService engineService;
+    private final ForkJoinPool pool;
+    private final Semaphore permits;
+    private final int maxPending;
+    private final long timeoutMillis;
+    private final long previewTimeoutMillis;
+    private final int inlineMaxLength;
+    /** Latest preview per client, removed when it finishes. */
+    private final ConcurrentHashMap<String, Job> previews = new ConcurrentHashMap<>();
+    private final Counter rejected;
+    private final Counter timeouts;
+    private final Counter superseded;
+
+    public ComputeService(EngineService engineService, MeterRegistry registry,
+            @Value("${procalc.compute.parallelism:0}") int parallelism,
+            @Value("${procalc.compute.max-pending:256}") int maxPending,
+            @Value("${procalc.compute.timeout-ms:5000}") long timeoutMillis,
+            @Value("${procalc.preview.timeout-ms:1000}") long previewTimeoutMillis,
+            @Value("${procalc.compute.inline-max-length:32}") int inlineMaxLength) {
+        this.engineService = engineService;
+        this.pool = new ForkJoinPool(parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors());
+        this.permits = new Semaphore(maxPending);
+        this.maxPending = maxPending;
+        this.timeoutMillis = timeoutMillis;
+        this.previewTimeoutMillis = previewTimeoutMillis;
+        this.inlineMaxLength = inlineMaxLength;
+        this.rejected = Counter.builder("procalc.compute.rejected")
+                .description("Evaluations refused because the compute pool was full")
+                .register(registry);
+        this.timeouts = Counter.builder("procalc.compute.timeouts")
+                .description("Evaluations abandoned after the request timeout")
+                .register(registry);
+        this.superseded = Counter.builder("procalc.preview.superseded")
+                .description("Previews cancelled because the same client sent a newer one")
+                .register(registry);
+        Gauge.builder("procalc.compute.pending", permits, p -> maxPending - p.availablePermits())
+                .description("Evaluations queued or running, on the compute pool or inline")
+                .register(registry);
+    }
+
+    /**
+     * Chunks to split {@code items} of bulk work into: a few per pool worker,
+     * which keeps the pool busy when item costs are uneven, but no more than a
+     * quarter of {@code max-pending}, so one request never needs every permit.
+     */
+    public int chunks(int items) {
+        return Math.max(1, Math.min(items, Math.min(pool.getParallelism() * 4, maxPending / 4)));
+    }
+
+    /**
+     * A permit for work done on the calling thread; close it when the work is
+     * done. Throws {@link OverloadedException} when none is free.
+     */
+    public Permit admit() {
+        acquire(1);
+        return new Permit();
+    }
+
+    /**
+     * Queue {@code tasks} on the compute pool, each holding a permit until it
+     * has run. Either all are admitted or, when fewer permits are free, none and
+     * {@link OverloadedException} is thrown. Tasks are never cancelled, so ones
+     * with a deadline should check it themselves and return early.
+     */
+    public List<Future<?>> submitAll(List<Runnable> tasks) {
+        acquire(tasks.size());
+        List<Future<?>> futures = new ArrayList<>(tasks.size());
+        for (Runnable task : tasks) {
+            futures.add(pool.submit(() -> {
+                try {
+                    task.run();
+                } finally {
+                    permits.release();
+                }
+            }));
+        }
+        return futures;
+    }
+
+    private void acquire(int n) {
+        if (!permits.tryAcquire(n)) {
+            rejected.increment();
+            throw new OverloadedException(BUSY_MESSAGE);
+        }
+    }
+
+    public EvaluateResponse evaluate(String expression, CalculatorEngine.Mode mode) {
+        return evaluate(expression, mode, ResponseShape.FULL);
+    }
+
+    public EvaluateResponse evaluate(String expression, CalculatorEngine.Mode mode, ResponseShape shape) {
+        return evaluate(expression, mode, shape, null);
+    }
+
+    /** Evaluate at the precision of {@code mc}; null means the default. */
+    public EvaluateResponse evaluate(String expression, CalculatorEngine.Mode mode, ResponseShape shape,
+            MathContext mc) {
+        if (isLight(expression, mc)) {
+            try (Permit permit = admit()) {
+                return engineService.evaluate(expression, mode, shape, mc);
+            }
+        }
+        Job job = submit(() -> engineService.evaluate(expression, mode, shape, mc));
+        return await(job, expression, timeoutMillis);
+    }
+
+    /**
+     * Like {@link #evaluate} with the shorter preview timeout. Starting a preview
+     * cancels the client's previous one: if it has not started it never runs, and
+     * its caller returns at once instead of waiting for a result nobody will show.
+     * A null client id has no previous preview and is never cancelled.
+     */
+    public EvaluateResponse preview(String clientId, String expression, CalculatorEngine.Mode mode) {
+        return preview(clientId, expression, mode, null);
+    }
+
+    public EvaluateResponse preview(String clientId, String expression, CalculatorEngine.Mode mode, MathContext mc) {
+        if (isLight(expression, mc)) {
+            try (Permit permit = admit()) {
+                return engineService.preview(expression, mode, mc);
+            }
+        }
+        Job job = submit(() -> engineService.preview(expression, mode, mc));
+        if (clientId == null)
+            return await(job, expression, previewTimeoutMillis);
+        Job stale = previews.put(clientId, job);
+        if (stale != null) {
+            stale.cancel();
+            superseded.increment();
+        }
+        try {
+            return await(job, expression, previewTimeoutMillis);
+        } finally {
+            previews.remove(clientId, job);
+        }
+    }
+
+    /**
+     * Short, at no more than the default precision, and free of the operators
+     * whose cost grows with their operands.
+     */
+    private boolean isLight(String expression, MathContext mc) {
+        if (mc != null && mc.getPrecision() > engineService.defaultContext().getPrecision())
+            return expression == null;
+        if (expression == null || expression.length() > inlineMaxLength)
+            return expression == null;
+        for (int i = 0; i < expression.length(); i++) {
+            char c = expression.charAt(i);
+            if (c == '^' || c == '!' || expression.regionMatches(true, i, "pow", 0, 3))
+                return false;
+        }
+        return true;
+    }
+
+    private Job submit(Callable<EvaluateResponse> work) {
+        acquire(1);
+        Job job = new Job(work);
+        job.task = pool.submit(job);
+        return job;
+    }
+
+    private EvaluateResponse await(Job job, String expression, long timeout) {
+        try {
+            return job.task.get(timeout, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException ex) {
+            job.cancel();
+            timeouts.increment();
+            return failed(expression, TIMEOUT_MESSAGE);
+        } catch (CancellationException ex) {
+            return failed(expression, SUPERSEDED_MESSAGE);
+        } catch (InterruptedException ex) {
+            job.cancel();
+            Thread.currentThread().interrupt();
+            return failed(expression, TIMEOUT_MESSAGE);
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof RuntimeException re)
+                throw re;
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    private static EvaluateResponse failed(String expression, String message) {
+        EvaluateResponse r = new EvaluateResponse(expression, null, null, "ERROR");
+        r.setMessage(message);
+        return r;
+    }
+
+    /**
+     * A pool task holding one permit. Whichever of "start running" and "cancel"
+     * happens first claims the job, and the permit is released exactly once.
+     */
+    private final class Job implements Callable<EvaluateResponse> {
+        private final Callable<EvaluateResponse> work;
+        private final AtomicBoolean claimed = new AtomicBoolean();
+        volatile ForkJoinTask<EvaluateResponse> task;
+
+        Job(Callable<EvaluateResponse> work) {
+            this.work = work;
+        }
+
+        @Override
+        public EvaluateResponse call() throws Exception {
+            if (!claimed.compareAndSet(false, true))
+                return null;
+            try {
+                return work.call();
+            } finally {
+                permits.release();
+            }
+        }
+
+        /**
+         * Release the waiter. Work that has not started never runs; work already
+         * running finishes (evaluation is bounded) and its result is dropped.
+         */
+        void cancel() {
+            ForkJoinTask<EvaluateResponse> t = task;
+            if (t != null)
+                t.cancel(false);
+            if (claimed.compareAndSet(false, true))
+                permits.release();
+        }
+    }
+
+    /** One permit held by work on the calling thread, released once on close. */
+    public final class Permit implements AutoCloseable {
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Permit() {
+        }
+
+        @Override
+        public void close() {
+            if (released.compareAndSet(false, true))
+                permits.release();
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+}
@@ -0,0 +1,107 @@
+package com.procalc.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Meters for the evaluation pipeline. Meters are created up front so the hot
+ * path only records values. Errors are counted by category, one of
+ * {@link #ERROR_TYPES}, so the tag has a fixed set of values however varied
+ * the messages are.
+ */
+public class EngineMetrics {
+    /** Values of the {@code type} tag on {@code procalc.eval.errors}. */
+    public static final List<String> ERROR_TYPES = List.of("syntax", "domain", "overflow", "budget", "internal");
+
+    private final MeterRegistry registry;
+    private final Timer tokenize;
+    private final Timer rpn;
+    private final Timer eval;
+    private final DistributionSummary length;
+    private final DistributionSummary tokens;
+    private final Map<String, Counter> errors = new LinkedHashMap<>();
+
+    public EngineMetrics(MeterRegistry registry) {
+        this.registry = registry;
+        this.tokenize = phase("tokenize");
+        this.rpn = phase("rpn");
+        this.eval = phase("eval");
+        this.length = DistributionSummary.builder("procalc.expression.length")
+                .description("Expression length in characters")
+                .baseUnit("chars")
+                .publishPercentileHistogram()
+                .register(registry);
+        this.tokens = DistributionSummary.builder("procalc.expression.tokens")
+                .description("Tokens per expression")
+                .baseUnit("tokens")
+                .publishPercentileHistogram()
+                .register(registry);
+        for (String type : ERROR_TYPES) {
+            errors.put(type, Counter.builder("procalc.eval.errors")
+                    .description("Evaluation errors by category")
+                    .tag("type", type)
+                    .register(registry));
+        }
+    }
+
+    private Timer phase(String name) {
+        return Timer.builder("procalc.eval.phase")
+                .description("Time spent in one evaluation phase")
+                .tag("phase", name)
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+
+    public MeterRegistry registry() {
+        return registry;
+    }
+
+    public void tokenized(long nanos, int chars, int tokenCount) {
+        tokenize.record(nanos, TimeUnit.NANOSECONDS);
+        length.record(chars);
+        tokens.record(tokenCount);
+    }
+
+    public void compiled(long nanos) {
+        rpn.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void evaluated(long nanos) {
+        eval.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /** Count an evaluation error under its {@linkplain #errorType category}. */
+    public void error(String message) {
+        errors.get(errorType(message)).increment();
+    }
+
+    /**
+     * The category of an evaluation error message: input that does not parse,
+     * an argument outside a function's domain, a result out of range, work
+     * refused by the size or step limits, and anything else.
+     */
+    static String errorType(String message) {
+        if (message == null)
+            return "internal";
+        String m = message.toLowerCase(Locale.ROOT);
+        if (m.startsWith("step budget") || m.startsWith("expression too"))
+            return "budget";
+        if (m.contains("overflow") || m.contains("underflow") || m.contains("too large")
+                || m.contains("out of range") || m.contains("finite"))
+            return "overflow";
+        if (m.contains("domain") || m.contains("division") || m.contains("requires integer"))
+            return "domain";
+        if (m.contains("parenthes") || m.contains("comma") || m.contains("malformed") || m.startsWith("unknown")
+                || m.startsWith("invalid") || m.contains("variable"))
+            return "syntax";
+        return "internal";
+    }
+}
@@ -1,37 +1,443 @@
 package com.procalc.service;
 
 import com.procalc.dto.EvaluateResponse;
+import com.procalc.dto.ResponseShape;
 import com.procalc.engine.CalculatorEngine;
+import com.procalc.engine.CompiledExpression;
+import com.procalc.engine.ExpressionError;
+import com.procalc.engine.IncrementalEvaluator;
+import com.procalc.engine.Lexer;
+import com.procalc.engine.ParseException;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.math.BigDecimal;
+import java.math.MathContext;
 import java.math.RoundingMode;
+import java.util.List;
+import java.util.Map;
 
+/**
+ * Entry point for evaluation. Input is checked against a cost guard before it
+ * runs: its length, its parenthesis depth and the static cost of the compiled
+ * program ({@link CompiledExpression#cost()}) are limited, and evaluation stops
+ * once its step budget is spent. The cost is checked again after optimizing,
+ * since it then includes the work of folding constants.
+ *
+ * Programs that pass the guard are optimized ({@link CalculatorEngine#optimize})
+ * before they run, unless {@code procalc.optimizer.enabled} is false. DOUBLE mode
+ * evaluation of single expressions runs unoptimized, since folding constants
+ * in decimal would change its IEEE results.
+ *
+ * BIGDECIMAL evaluation runs at 28 digits with HALF_UP rounding unless a request
+ * asks for another {@link MathContext} ({@link #context}). Each context has one
+ * shared engine ({@link CalculatorEngine#of}), and its literals and constants
+ * are parsed and rounded once. Results are cached per context.
+ */
 @Service
 public class EngineService {
+    static final String TOO_LONG_MESSAGE = "Expression too long";
+    static final String TOO_DEEP_MESSAGE = "Expression nested too deeply";
+    static final String TOO_COMPLEX_MESSAGE = "Expression too complex";
+    static final int DEFAULT_PRECISION = 28;
+    static final RoundingMode DEFAULT_ROUNDING = RoundingMode.HALF_UP;
+
     private final CalculatorEngine engine;
+    private final ResultCache<Outcome> cache;
+    private final EngineMetrics metrics;
+    private static final BigDecimal[] NO_BINDINGS = new BigDecimal[0];
+    private static final double[] NO_DOUBLE_BINDINGS = new double[0];
+
+    private final int maxLength;
+    private final int maxDepth;
+    private final long maxCost;
+    private final long stepBudget;
+    private final boolean optimize;
+    private final int maxPrecision;
 
     public EngineService() {
-        // 28 digits precision, HALF_UP rounding
-        this.engine = new CalculatorEngine(28, RoundingMode.HALF_UP);
+        this(10_000, 16L * 1024 * 1024, 600_000, new SimpleMeterRegistry());
+    }
+
+    public EngineService(int cacheEntries, long cacheBytes, long cacheTtlMillis, MeterRegistry registry) {
+        this(cacheEntries, cacheBytes, cacheTtlMillis, 10_000, 100, 100_000, 1_000_000, true, 1000, registry);
+    }
+
+    @Autowired
+    public EngineService(@Value("${procalc.cache.max-entries:10000}") int cacheEntries,
+            @Value("${procalc.cache.max-bytes:16777216}") long cacheBytes,
+            @Value("${procalc.cache.ttl-ms:600000}") long cacheTtlMillis,
+            @Value("${procalc.limits.max-length:10000}") int maxLength,
+            @Value("${procalc.limits.max-depth:100}") int maxDepth,
+            @Value("${procalc.limits.max-cost:100000}") long maxCost,
+            @Value("${procalc.limits.step-budget:1000000}") long stepBudget,
+            @Value("${procalc.optimizer.enabled:true}") boolean optimize,
+            @Value("${procalc.precision.max-digits:1000}") int maxPrecision,
+            MeterRegistry registry) {
+        this.optimize = optimize;
+        this.maxPrecision = maxPrecision;
+        this.maxLength = maxLength;
+        this.maxDepth = maxDepth;
+        this.maxCost = maxCost;
+        this.stepBudget = stepBudget;
+        this.engine = CalculatorEngine.of(new MathContext(DEFAULT_PRECISION, DEFAULT_ROUNDING));
+        this.cache = new ResultCache<>(cacheEntries, cacheBytes, cacheTtlMillis, EngineService::weigh);
+        this.metrics = new EngineMetrics(registry);
+        FunctionCounter.builder("procalc.cache.hits", cache, ResultCache::hitCount).register(registry);
+        FunctionCounter.builder("procalc.cache.misses", cache, ResultCache::missCount).register(registry);
+        FunctionCounter.builder("procalc.cache.evictions", cache, ResultCache::evictionCount).register(registry);
+        Gauge.builder("procalc.cache.size", cache, ResultCache::size).register(registry);
+        Gauge.builder("procalc.cache.bytes", cache, ResultCache::weightBytes).baseUnit("bytes").register(registry);
+    }
+
+    /**
+     * Parse an expression once so it can be evaluated repeatedly.
+     * Throws IllegalArgumentException for input that cannot be parsed.
+     */
+    public CompiledExpression compile(String expression) {
+        return compile(expression, List.of());
+    }
+
+    /**
+     * Parse an expression with named variables; see {@link CalculatorEngine#compile(String, List)}.
+     */
+    public CompiledExpression compile(String expression, List<String> variables) {
+        return compile(expression, variables, CalculatorEngine.Mode.BIGDECIMAL);
+    }
+
+    /**
+     * Parse an expression with named variables for evaluation in {@code mode}.
+     * Only BIGDECIMAL programs are optimized: folding and the identities the
+     * optimizer applies hold for BigDecimal arithmetic, not for doubles, so a
+     * DOUBLE program is kept as written and gives what {@code mode=DOUBLE} does.
+     */
+    public CompiledExpression compile(String expression, List<String> variables, CalculatorEngine.Mode mode) {
+        if (tooLong(expression))
+            throw new IllegalArgumentException(TOO_LONG_MESSAGE);
+        CompiledExpression compiled = engine.compile(expression, variables);
+        String rejected = checkCost(compiled);
+        if (rejected == null && optimize && mode == CalculatorEngine.Mode.BIGDECIMAL) {
+            compiled = engine.optimize(compiled, maxCost); // folded steps count toward max-cost
+            rejected = checkCost(compiled);
+        }
+        if (rejected != null)
+            throw new IllegalArgumentException(rejected);
+        return compiled;
+    }
+
+    boolean tooLong(String expression) {
+        return expression != null && expression.length() > maxLength;
+    }
+
+    /**
+     * Structural problems in {@code expression} with their offsets, without
+     * parsing numbers, compiling or touching the cache: the length and nesting
+     * limits, then {@link CalculatorEngine#validate}. Empty if it would compile.
+     * The static cost limit needs the compiled program and is not checked.
+     */
+    public List<ExpressionError> validate(String expression) {
+        if (tooLong(expression))
+            return List.of(new ExpressionError(TOO_LONG_MESSAGE, maxLength));
+        int open = 0;
+        for (int i = 0; expression != null && i < expression.length(); i++) {
+            char c = expression.charAt(i);
+            if (c == '(' && ++open > maxDepth)
+                return List.of(new ExpressionError(TOO_DEEP_MESSAGE, i));
+            if (c == ')' && open > 0)
+                open--;
+        }
+        return CalculatorEngine.validate(expression);
+    }
+
+    /** Why the compiled program is refused, or null if it is within limits. */
+    private String checkCost(CompiledExpression compiled) {
+        if (compiled.depth() > maxDepth)
+            return TOO_DEEP_MESSAGE;
+        if (compiled.cost() > maxCost)
+            return TOO_COMPLEX_MESSAGE;
+        return null;
     }
 
+    /**
+     * The context a request asks for; null precision or rounding keeps the
+     * default. Throws IllegalArgumentException for a precision outside
+     * 1..{@code procalc.precision.max-digits} or an unknown rounding mode.
+     * UNNECESSARY is refused, since nearly every function result is inexact.
+     */
+    public MathContext context(Integer precision, String rounding) {
+        int digits = precision == null ? DEFAULT_PRECISION : precision;
+        if (digits < 1 || digits > maxPrecision)
+            throw new IllegalArgumentException("Precision must be between 1 and " + maxPrecision);
+        RoundingMode mode = rounding == null || rounding.isBlank() ? DEFAULT_ROUNDING : roundingMode(rounding);
+        return digits == DEFAULT_PRECISION && mode == DEFAULT_ROUNDING ? defaultContext() : new MathContext(digits, mode);
+    }
+
+    private static RoundingMode roundingMode(String name) {
+        for (RoundingMode m : RoundingMode.values())
+            if (m != RoundingMode.UNNECESSARY && m.name().equalsIgnoreCase(name.trim()))
+                return m;
+        throw new IllegalArgumentException("Unknown rounding mode: " + name);
+    }
+
+    public MathContext defaultContext() {
+        return engine.getMathContext();
+    }
+
+    /** The shared engine for {@code mc}; null means the default. */
+    private CalculatorEngine engine(MathContext mc) {
+        return mc == null || mc.equals(engine.getMathContext()) ? engine : CalculatorEngine.of(mc);
+    }
+
+    /**
+     * Evaluate through the result cache. Entries are keyed by the token sequence,
+     * so whitespace and ×/÷ spellings of the same expression share one entry.
+     */
     public EvaluateResponse evaluate(String expression) {
-        var res = engine.evaluateExpression(expression);
-        EvaluateResponse r = new EvaluateResponse();
-        r.setExpression(expression);
-        if (!res.ok) {
+        return evaluate(expression, CalculatorEngine.Mode.BIGDECIMAL);
+    }
+
+    public EvaluateResponse evaluate(String expression, CalculatorEngine.Mode mode) {
+        return evaluate(expression, mode, ResponseShape.FULL);
+    }
+
+    /**
+     * Evaluate and return only the fields of {@code shape}. The cache holds the
+     * value, and each display string is built the first time a response asks
+     * for it and then kept with the value.
+     */
+    public EvaluateResponse evaluate(String expression, CalculatorEngine.Mode mode, ResponseShape shape) {
+        return evaluate(expression, mode, shape, null);
+    }
+
+    /**
+     * Evaluate at the precision and rounding of {@code mc} (null for the
+     * default). DOUBLE mode ignores it.
+     */
+    public EvaluateResponse evaluate(String expression, CalculatorEngine.Mode mode, ResponseShape shape,
+            MathContext mc) {
+        if (tooLong(expression))
+            return rejected(expression, TOO_LONG_MESSAGE);
+        CalculatorEngine e = mode == CalculatorEngine.Mode.DOUBLE ? engine : engine(mc);
+        Lexer.Tokens tokens = lex(e, expression);
+        if (tokens.errorPosition() >= 0) // the key leaves out what the lexer rejected
+            return toResponse(expression, new Outcome(run(e, tokens, mode), null), shape, null);
+        String key = e == engine
+                ? mode.ordinal() + ":" + tokens.key()
+                : mode.ordinal() + ":" + e.getMathContext().getPrecision() + ":"
+                        + e.getMathContext().getRoundingMode().ordinal() + ":" + tokens.key();
+        Outcome cached = cache.get(key);
+        if (cached == null) {
+            cached = new Outcome(run(e, tokens, mode), tokens);
+            cache.put(key, cached);
+        } else if (cached.message != null) {
+            metrics.error(cached.message);
+        }
+        return toResponse(expression, cached, shape, tokens);
+    }
+
+    /**
+     * Evaluate without touching the result cache, for one-off bulk input that
+     * would only churn it.
+     */
+    public EvaluateResponse evaluateUncached(String expression) {
+        if (tooLong(expression))
+            return rejected(expression, TOO_LONG_MESSAGE);
+        return toResponse(expression, run(engine, lex(engine, expression), CalculatorEngine.Mode.BIGDECIMAL));
+    }
+
+    private Lexer.Tokens lex(CalculatorEngine engine, String expression) {
+        long start = System.nanoTime();
+        Lexer.Tokens tokens = engine.lex(expression);
+        metrics.tokenized(System.nanoTime() - start, tokens.source().length(), tokens.size());
+        return tokens;
+    }
+
+    /** Compile and evaluate lexed tokens, timing each phase and counting errors. */
+    private CalculatorEngine.EvalResult run(CalculatorEngine engine, Lexer.Tokens tokens, CalculatorEngine.Mode mode) {
+        CalculatorEngine.EvalResult res;
+        long start = System.nanoTime();
+        try {
+            CompiledExpression compiled = engine.compile(tokens, List.of());
+            long compiledAt = System.nanoTime();
+            metrics.compiled(compiledAt - start);
+            String rejected = checkCost(compiled);
+            if (rejected == null && optimize && mode == CalculatorEngine.Mode.BIGDECIMAL) {
+                compiled = engine.optimize(compiled, maxCost); // folded steps count toward max-cost
+                rejected = checkCost(compiled); // now counting the folded work
+            }
+            if (rejected != null) {
+                res = new CalculatorEngine.EvalResult(false, null, rejected);
+            } else {
+                res = mode == CalculatorEngine.Mode.DOUBLE
+                        ? compiled.evaluateDouble(NO_DOUBLE_BINDINGS, stepBudget)
+                        : compiled.evaluate(NO_BINDINGS, stepBudget);
+                metrics.evaluated(System.nanoTime() - compiledAt);
+            }
+        } catch (ParseException ex) {
+            res = new CalculatorEngine.EvalResult(false, null, ex.getMessage(), ex.getPosition());
+        } catch (IllegalArgumentException ex) {
+            res = new CalculatorEngine.EvalResult(false, null, ex.getMessage());
+        }
+        if (!res.ok)
+            metrics.error(res.message);
+        return res;
+    }
+
+    public EvaluateResponse evaluate(CompiledExpression compiled) {
+        return toResponse(compiled.getSource(), timedEvaluate(compiled, null));
+    }
+
+    /**
+     * Evaluate a compiled expression for one row of variable values. The response
+     * does not echo the expression, since callers send many rows per expression.
+     */
+    public EvaluateResponse evaluateRow(CompiledExpression compiled, BigDecimal[] bindings) {
+        return toResponse(null, timedEvaluate(compiled, bindings));
+    }
+
+    private CalculatorEngine.EvalResult timedEvaluate(CompiledExpression compiled, BigDecimal[] bindings) {
+        long start = System.nanoTime();
+        CalculatorEngine.EvalResult res = compiled.evaluate(bindings == null ? NO_BINDINGS : bindings, stepBudget);
+        metrics.evaluated(System.nanoTime() - start);
+        if (!res.ok)
+            metrics.error(res.message);
+        return res;
+    }
+
+    public EvaluateResponse preview(String expression) {
+        return preview(expression, CalculatorEngine.Mode.BIGDECIMAL);
+    }
+
+    public EvaluateResponse preview(String expression, CalculatorEngine.Mode mode) {
+        return preview(expression, mode, null);
+    }
+
+    public EvaluateResponse preview(String expression, CalculatorEngine.Mode mode, MathContext mc) {
+        // Preview shares the cache, so the follow-up evaluate of the same input is a hit
+        return evaluate(expression, mode, ResponseShape.FULL, mc);
+    }
+
+    /**
+     * An evaluator for one client's preview edits. A session applies ops while it
+     * parses, before any static check could refuse the input, so it may spend no
+     * more than {@code max-cost} steps and gives up past {@code max-depth}.
+     */
+    IncrementalEvaluator newPreviewSession() {
+        return engine.incrementalEvaluator(maxCost, maxDepth);
+    }
+
+    /**
+     * Preview through the client's session, re-parsing only what changed since
+     * its last input; the caller has already refused over-long input. Returns
+     * null when the session cannot answer on its own (an error, or input outside
+     * the cost guard) and the caller should take the full path, which reports
+     * the exact error.
+     */
+    EvaluateResponse preview(IncrementalEvaluator session, String expression) {
+        long start = System.nanoTime();
+        CalculatorEngine.EvalResult res = session.evaluate(expression);
+        if (res == null || session.depth() > maxDepth || session.cost() > maxCost)
+            return null;
+        metrics.evaluated(System.nanoTime() - start);
+        return toResponse(expression, res);
+    }
+
+    public Map<String, Object> cacheStats() {
+        return cache.stats();
+    }
+
+    private EvaluateResponse toResponse(String expression, CalculatorEngine.EvalResult res) {
+        return toResponse(expression, new Outcome(res, null), ResponseShape.FULL, null);
+    }
+
+    /** {@code tokens} are the lexed {@code expression}, or null if its outcome holds a plain offset. */
+    private static EvaluateResponse toResponse(String expression, Outcome outcome, ResponseShape shape,
+            Lexer.Tokens tokens) {
+        EvaluateResponse r = shape == ResponseShape.FULL ? new EvaluateResponse() : new EvaluateResponse.Trimmed();
+        if (shape == ResponseShape.FULL)
+            r.setExpression(expression);
+        if (outcome.value == null) {
             r.setStatus("ERROR");
-            r.setMessage(res.message);
+            r.setMessage(outcome.message);
+            if (outcome.position >= 0)
+                r.setPosition(outcome.position(tokens));
         } else {
             r.setStatus("OK");
-            r.setResult(res.value.toPlainString());
-            r.setFormatted(CalculatorEngine.format(res.value));
+            if (shape.includesResult())
+                r.setResult(outcome.plain());
+            if (shape.includesFormatted())
+                r.setFormatted(outcome.formatted());
         }
         return r;
     }
 
-    public EvaluateResponse preview(String expression) {
-        // For now preview is same as evaluate
-        return evaluate(expression);
+    /**
+     * An evaluation's value or error. The display strings are built on first use
+     * and kept; two threads racing to build one produce equal strings. Neither is
+     * longer than {@link CalculatorEngine#MAX_PLAIN_LENGTH} plus an exponent.
+     */
+    private static final class Outcome {
+        final BigDecimal value;
+        final String message;
+        /** Error offset, counted from the start of {@link #token} when that is not -1; -1 without one. */
+        final int position;
+        /** Token the error position refers to, so inputs sharing a cache key each get their own offset. */
+        final int token;
+        private volatile String plain;
+        private volatile String formatted;
+
+        /** {@code tokens} are the lexed input, or null to keep the error offset as it is. */
+        Outcome(CalculatorEngine.EvalResult res, Lexer.Tokens tokens) {
+            this.value = res.ok ? res.value : null;
+            this.message = res.ok ? null : res.message;
+            int at = res.ok ? -1 : res.position;
+            this.token = at >= 0 && tokens != null ? tokens.tokenAt(at) : -1;
+            this.position = token >= 0 ? Math.max(0, at - tokens.offsetOf(token)) : at;
+        }
+
+        /** Error offset in the input lexed as {@code tokens}. */
+        int position(Lexer.Tokens tokens) {
+            return token >= 0 ? tokens.offsetOf(token) + position : position;
+        }
+
+        String plain() {
+            String s = plain;
+            if (s == null)
+                plain = s = CalculatorEngine.plain(value);
+            return s;
+        }
+
+        String formatted() {
+            String s = formatted;
+            if (s == null)
+                formatted = s = CalculatorEngine.format(value);
+            return s;
+        }
+    }
+
+    private EvaluateResponse rejected(String expression, String message) {
+        metrics.error(message);
+        return toResponse(expression, new CalculatorEngine.EvalResult(false, null, message));
+    }
+
+    /**
+     * Estimated size once both display strings exist, so entries do not outgrow
+     * their weight when the strings are built later.
+     */
+    private static long weigh(Outcome o) {
+        long n = 64;
+        if (o.value != null) {
+            long digits = o.value.precision();
+            long plainChars = Math.min(digits + Math.abs((long) o.value.scale()) + 2,
+                    CalculatorEngine.MAX_PLAIN_LENGTH);
+            n += 40 + digits / 2 + 48 + 2 * plainChars + 48 + 2L * Math.min(plainChars, 40);
+        }
+        if (o.message != null) n += 48 + 2L * o.message.length();
+        return n;
     }
 }
@@ -0,0 +1,386 @@
+package com.procalc.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only history log in numbered segment files, written through a
+ * memory-mapped buffer.
+ *
+ * {@link #append} only enqueues; a single writer thread drains everything queued,
+ * copies it into the active segment and forces it once per drain, so concurrent
+ * evaluations share one fsync (group commit). When a segment fills up a new one is
+ * started, and once more than {@code compactAfter} segments are sealed they are
+ * rewritten in the background into one segment that keeps only the last
+ * {@code keepPerClient} entries of each client after its last clear.
+ *
+ * Segment layout: magic, then the number of the oldest segment it replaces (a
+ * compacted segment supersedes everything from there up to itself), then records
+ * of {@code length, crc32, body}. A zero length or bad checksum ends the segment,
+ * so a torn write at the tail is ignored on replay.
+ */
+class HistoryLog implements AutoCloseable {
+    private static final int MAGIC = 0x50434831; // "PCH1"
+    private static final int HEADER = 12;
+    private static final byte ENTRY = 1;
+    private static final byte CLEAR = 2;
+    private static final String SUFFIX = ".log";
+
+    /** Receives replayed records, oldest first. */
+    interface Replay {
+        void entry(String clientId, String expression, String result, Instant timestamp);
+
+        void clear(String clientId);
+    }
+
+    private record Record(byte type, String clientId, String expression, String result, long millis) {
+    }
+
+    private final Path dir;
+    private final int segmentBytes;
+    private final int compactAfter;
+    private final int keepPerClient;
+    private final BlockingQueue<Record> queue;
+    private final Thread writer;
+    private final ExecutorService compactor;
+    private final Counter dropped;
+    private final Counter errors;
+    private final Timer fsync;
+
+    private FileChannel channel;
+    private MappedByteBuffer active;
+    private volatile long activeNumber;
+    /** Sealed segments since the last compaction was scheduled; writer thread only. */
+    private int sealed;
+    private volatile boolean closed;
+
+    HistoryLog(Path dir, int segmentBytes, int compactAfter, int keepPerClient, int queueSize,
+            MeterRegistry registry) {
+        this.dir = dir;
+        this.segmentBytes = segmentBytes;
+        this.compactAfter = compactAfter;
+        this.keepPerClient = keepPerClient;
+        this.queue = new ArrayBlockingQueue<>(queueSize);
+        this.dropped = Counter.builder("procalc.history.log.dropped")
+                .description("History records not logged because the write queue was full")
+                .register(registry);
+        this.errors = Counter.builder("procalc.history.log.errors")
+                .description("I/O errors while writing or compacting the history log")
+                .register(registry);
+        this.fsync = Timer.builder("procalc.history.log.fsync")
+                .description("Time to force one group of history records to disk")
+                .register(registry);
+        this.writer = new Thread(this::writeLoop, "history-log-writer");
+        this.writer.setDaemon(true);
+        this.compactor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "history-log-compactor");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Replay every live segment into {@code replay}, then open a fresh segment and
+     * start the writer. Must be called once before {@link #append}.
+     */
+    void open(Replay replay) throws IOException {
+        Files.createDirectories(dir);
+        TreeMap<Long, Path> segments = liveSegments();
+        for (Path p : segments.values())
+            replay(p, replay);
+        sealed = segments.size();
+        roll(segments.isEmpty() ? 0 : segments.lastKey() + 1);
+        writer.start();
+    }
+
+    void append(String clientId, String expression, String result, Instant timestamp) {
+        offer(new Record(ENTRY, clientId, expression, result, timestamp.toEpochMilli()));
+    }
+
+    void clear(String clientId) {
+        offer(new Record(CLEAR, clientId, "", null, System.currentTimeMillis()));
+    }
+
+    private void offer(Record r) {
+        if (closed || !queue.offer(r))
+            dropped.increment();
+    }
+
+    // ---- writer thread ----
+
+    private void writeLoop() {
+        List<Record> batch = new ArrayList<>();
+        while (true) {
+            try {
+                Record first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    if (closed && queue.isEmpty())
+                        return;
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch);
+                for (Record r : batch)
+                    write(encode(r));
+                long start = System.nanoTime();
+                active.force();
+                fsync.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException ex) {
+                return;
+            } catch (IOException | UncheckedIOException ex) {
+                errors.increment();
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void write(ByteBuffer record) throws IOException {
+        if (record.remaining() > segmentBytes - HEADER) {
+            dropped.increment();
+            return;
+        }
+        if (active.remaining() < record.remaining()) {
+            active.force();
+            channel.close();
+            sealed++;
+            roll(activeNumber + 1);
+        }
+        active.put(record);
+    }
+
+    /**
+     * Map a new, zero-filled segment as the active one, and schedule a compaction
+     * once enough segments are sealed.
+     */
+    private void roll(long number) throws IOException {
+        channel = FileChannel.open(segmentPath(number),
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        active = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+        active.putInt(MAGIC).putLong(number);
+        activeNumber = number;
+        if (sealed > compactAfter) {
+            sealed = 1;
+            compactor.execute(this::compactQuietly);
+        }
+    }
+
+    // ---- compaction ----
+
+    private void compactQuietly() {
+        try {
+            compact();
+        } catch (IOException | UncheckedIOException ex) {
+            errors.increment();
+        }
+    }
+
+    /**
+     * Rewrite all sealed segments into one holding the last {@code keepPerClient}
+     * entries per client. The result replaces the newest sealed segment and records
+     * the oldest one it covers, so a crash before the old files are deleted cannot
+     * replay entries twice.
+     */
+    void compact() throws IOException {
+        TreeMap<Long, Path> sealed = liveSegments();
+        sealed.tailMap(activeNumber, true).clear(); // read after listing: never includes the active file
+        if (sealed.size() < 2)
+            return;
+        Map<String, ArrayDeque<Record>> kept = new HashMap<>();
+        List<String> order = new ArrayList<>();
+        for (Path p : sealed.values()) {
+            forEachRecord(p, r -> {
+                ArrayDeque<Record> q = kept.computeIfAbsent(r.clientId(), k -> {
+                    order.add(k);
+                    return new ArrayDeque<>();
+                });
+                if (r.type() == CLEAR) {
+                    q.clear();
+                } else {
+                    q.addLast(r);
+                    if (q.size() > keepPerClient)
+                        q.removeFirst();
+                }
+            });
+        }
+        long first = sealed.firstKey();
+        long last = sealed.lastKey();
+        Path tmp = dir.resolve(last + SUFFIX + ".tmp");
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER).putInt(MAGIC).putLong(first).flip();
+            out.write(header);
+            List<Record> all = new ArrayList<>();
+            for (String client : order)
+                all.addAll(kept.get(client));
+            all.sort((a, b) -> Long.compare(a.millis(), b.millis()));
+            for (Record r : all) {
+                ByteBuffer b = encode(r);
+                while (b.hasRemaining())
+                    out.write(b);
+            }
+            out.force(true);
+        }
+        Files.move(tmp, segmentPath(last), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        for (Path p : sealed.headMap(last).values())
+            Files.deleteIfExists(p);
+    }
+
+    // ---- files and records ----
+
+    private Path segmentPath(long number) {
+        return dir.resolve(String.format("%016d%s", number, SUFFIX));
+    }
+
+    /**
+     * Segment files by number, dropping (and deleting) any superseded by a
+     * compacted segment.
+     */
+    private TreeMap<Long, Path> liveSegments() throws IOException {
+        TreeMap<Long, Path> segments = new TreeMap<>();
+        try (var files = Files.list(dir)) {
+            for (Path p : (Iterable<Path>) files::iterator) {
+                String name = p.getFileName().toString();
+                if (!name.endsWith(SUFFIX))
+                    continue;
+                try {
+                    segments.put(Long.parseLong(name.substring(0, name.length() - SUFFIX.length())), p);
+                } catch (NumberFormatException ignored) {
+                    // not ours
+                }
+            }
+        }
+        for (Long number : new ArrayList<>(segments.descendingKeySet())) {
+            Path p = segments.get(number);
+            if (p == null)
+                continue;
+            long covers = coversFrom(p, number);
+            for (Long older : new ArrayList<>(segments.subMap(covers, number).keySet()))
+                Files.deleteIfExists(segments.remove(older));
+        }
+        return segments;
+    }
+
+    private static long coversFrom(Path p, long number) throws IOException {
+        try (FileChannel ch = FileChannel.open(p, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER);
+            ch.read(header, 0);
+            header.flip();
+            if (header.remaining() < HEADER || header.getInt() != MAGIC)
+                return number;
+            return Math.min(header.getLong(), number);
+        }
+    }
+
+    private static void replay(Path p, Replay replay) throws IOException {
+        forEachRecord(p, r -> {
+            if (r.type() == CLEAR)
+                replay.clear(r.clientId());
+            else
+                replay.entry(r.clientId(), r.expression(), r.result(), Instant.ofEpochMilli(r.millis()));
+        });
+    }
+
+    /** Read records sequentially from a read-only mapping until the first empty or damaged one. */
+    private static void forEachRecord(Path p, Consumer<Record> action) throws IOException {
+        try (FileChannel ch = FileChannel.open(p, StandardOpenOption.READ)) {
+            long size = ch.size();
+            if (size < HEADER)
+                return;
+            MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (buf.getInt() != MAGIC)
+                return;
+            buf.getLong();
+            CRC32 crc = new CRC32();
+            while (buf.remaining() >= 8) {
+                int length = buf.getInt();
+                int checksum = buf.getInt();
+                if (length <= 0 || length > buf.remaining())
+                    return;
+                ByteBuffer body = buf.slice(buf.position(), length);
+                crc.reset();
+                crc.update(body.duplicate());
+                if ((int) crc.getValue() != checksum)
+                    return;
+                action.accept(decode(body));
+                buf.position(buf.position() + length);
+            }
+        }
+    }
+
+    private static ByteBuffer encode(Record r) {
+        byte[] client = r.clientId().getBytes(StandardCharsets.UTF_8);
+        byte[] expr = r.expression().getBytes(StandardCharsets.UTF_8);
+        byte[] result = r.result() == null ? null : r.result().getBytes(StandardCharsets.UTF_8);
+        int length = 1 + 8 + 4 + client.length + 4 + expr.length + 4 + (result == null ? 0 : result.length);
+        ByteBuffer b = ByteBuffer.allocate(8 + length);
+        b.position(8);
+        b.put(r.type()).putLong(r.millis());
+        b.putInt(client.length).put(client);
+        b.putInt(expr.length).put(expr);
+        b.putInt(result == null ? -1 : result.length);
+        if (result != null)
+            b.put(result);
+        CRC32 crc = new CRC32();
+        crc.update(b.array(), 8, length);
+        b.putInt(0, length).putInt(4, (int) crc.getValue());
+        return b.flip();
+    }
+
+    private static Record decode(ByteBuffer b) {
+        byte type = b.get();
+        long millis = b.getLong();
+        String client = string(b, b.getInt());
+        String expr = string(b, b.getInt());
+        String result = string(b, b.getInt());
+        return new Record(type, client, expr, result, millis);
+    }
+
+    private static String string(ByteBuffer b, int length) {
+        if (length < 0)
+            return null;
+        byte[] bytes = new byte[length];
+        b.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /** Flush what is queued, then stop the writer and compactor. */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        try {
+            writer.join(5000);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        compactor.shutdown();
+        if (channel != null)
+            channel.close();
+    }
+}
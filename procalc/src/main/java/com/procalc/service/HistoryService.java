@@ -1,43 +1,200 @@
 package com.procalc.service;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Path;
 import java.time.Instant;
-import java.util.ArrayDeque;
-import java.util.Deque;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
+/**
+ * Calculation history scoped per client. Each client has a fixed-size ring
+ * buffer: a writer claims a sequence number and publishes its entry into the
+ * slot, readers walk back from the newest sequence and skip slots that were
+ * overwritten or not yet published. Neither side ever takes a lock; the
+ * slots a reader skips that way are counted as races with a writer.
+ *
+ * When {@code procalc.history.log-dir} is set, entries are also written to a
+ * {@link HistoryLog} off the request thread and replayed from it on startup.
+ */
 @Service
 public class HistoryService {
-    private final Deque<HistoryEntry> history = new ArrayDeque<>();
-    private final int MAX = 50;
+    private final ClientRegistry<Ring> clients;
+    private final int capacity;
+    private final HistoryLog log;
+    private final Counter readRaces;
 
-    public synchronized void add(String expr, String result) {
+    public HistoryService(MeterRegistry registry,
+            @Value("${procalc.history.capacity:200}") int capacity,
+            @Value("${procalc.history.max-clients:10000}") int maxClients,
+            @Value("${procalc.history.idle-ttl-ms:1800000}") long idleMillis,
+            @Value("${procalc.history.log-dir:}") String logDir,
+            @Value("${procalc.history.log.segment-bytes:4194304}") int segmentBytes,
+            @Value("${procalc.history.log.compact-after:4}") int compactAfter,
+            @Value("${procalc.history.log.queue-size:65536}") int queueSize) throws IOException {
+        if (capacity < 1)
+            throw new IllegalArgumentException("procalc.history.capacity must be positive");
+        this.capacity = capacity;
+        this.clients = new ClientRegistry<>(() -> new Ring(capacity), maxClients, idleMillis);
+        Gauge.builder("procalc.history.clients", clients, ClientRegistry::size).register(registry);
+        this.readRaces = Counter.builder("procalc.history.read.races")
+                .description("History slots a read skipped because a concurrent add had overwritten or not yet published them")
+                .register(registry);
+        if (logDir == null || logDir.isBlank()) {
+            this.log = null;
+        } else {
+            this.log = new HistoryLog(Path.of(logDir), segmentBytes, compactAfter, capacity, queueSize, registry);
+            log.open(new HistoryLog.Replay() {
+                @Override
+                public void entry(String clientId, String expression, String result, Instant timestamp) {
+                    clients.get(clientId).add(expression, result, timestamp);
+                }
+
+                @Override
+                public void clear(String clientId) {
+                    clearRing(clientId);
+                }
+            });
+        }
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        if (log != null)
+            log.close();
+    }
+
+    private static final class Ring {
+        final AtomicReferenceArray<HistoryEntry> slots;
+        final AtomicLong next = new AtomicLong();
+        /** Entries with a lower sequence were cleared. */
+        volatile long floor;
+
+        Ring(int capacity) {
+            this.slots = new AtomicReferenceArray<>(capacity);
+        }
+
+        void add(String expr, String result, Instant timestamp) {
+            long seq = next.getAndIncrement();
+            slots.set((int) (seq % slots.length()), new HistoryEntry(seq, expr, result, timestamp));
+        }
+
+        /** Entry with sequence {@code seq}, or null if overwritten, unpublished or cleared. */
+        HistoryEntry at(long seq) {
+            if (seq < floor)
+                return null;
+            HistoryEntry e = slots.get((int) (seq % slots.length()));
+            return e != null && e.id == seq ? e : null;
+        }
+    }
+
+    public void add(String clientId, String expr, String result) {
         if (expr == null)
             return;
-        history.addLast(new HistoryEntry(expr, result, Instant.now()));
-        if (history.size() > MAX)
-            history.removeFirst();
+        Instant now = Instant.now();
+        clients.get(clientId).add(expr, result, now);
+        if (log != null)
+            log.append(clientId, expr, result, now);
+    }
+
+    /**
+     * Newest entries first. {@code cursor} is the {@code nextCursor} of the previous
+     * page (null for the first page); {@code query} matches expression or result
+     * ignoring case, and {@code min}/{@code max} bound numeric results.
+     * Entries not matching the filters are skipped without being copied.
+     */
+    public Page list(String clientId, Long cursor, int limit, String query, BigDecimal min, BigDecimal max) {
+        if (limit < 1)
+            throw new IllegalArgumentException("limit must be positive");
+        Ring ring = clients.peek(clientId);
+        if (ring == null)
+            return new Page(List.of(), null);
+        String q = query == null || query.isBlank() ? null : query.trim().toLowerCase(Locale.ROOT);
+        long newest = ring.next.get() - 1;
+        long from = cursor == null ? newest : Math.min(cursor - 1, newest);
+        long oldest = Math.max(0, newest - capacity + 1);
+        List<HistoryEntry> items = new ArrayList<>(Math.min(limit, capacity));
+        long seq = from;
+        for (; seq >= oldest && items.size() < limit; seq--) {
+            HistoryEntry e = ring.at(seq);
+            if (e == null) {
+                if (seq >= ring.floor)
+                    readRaces.increment();
+            } else if (e.matches(q, min, max)) {
+                items.add(e);
+            }
+        }
+        Long nextCursor = seq >= oldest && seq >= ring.floor && !items.isEmpty()
+                ? items.get(items.size() - 1).id : null;
+        return new Page(items, nextCursor);
+    }
+
+    public void clear(String clientId) {
+        clearRing(clientId);
+        if (log != null)
+            log.clear(clientId);
     }
 
-    public synchronized List<HistoryEntry> list() {
-        return history.stream().collect(Collectors.toList());
+    private void clearRing(String clientId) {
+        Ring ring = clients.peek(clientId);
+        if (ring != null)
+            ring.floor = ring.next.get();
     }
 
-    public synchronized void clear() {
-        history.clear();
+    public record Page(List<HistoryEntry> items, Long nextCursor) {
     }
 
     public static class HistoryEntry {
+        public final long id;
         public final String expression;
         public final String result;
         public final Instant timestamp;
+        /** Lower-cased expression and result, for search. */
+        private final String haystack;
+        /** Result as a number, or null if it is not one. */
+        private final BigDecimal numeric;
 
-        public HistoryEntry(String expression, String result, Instant timestamp) {
+        public HistoryEntry(long id, String expression, String result, Instant timestamp) {
+            this.id = id;
             this.expression = expression;
             this.result = result;
             this.timestamp = timestamp;
+            this.haystack = (expression + (result == null ? "" : result)).toLowerCase(Locale.ROOT);
+            this.numeric = parse(result);
+        }
+
+        private static BigDecimal parse(String s) {
+            if (s == null)
+                return null;
+            try {
+                return new BigDecimal(s);
+            } catch (NumberFormatException ex) {
+                return null;
+            }
+        }
+
+        boolean matches(String q, BigDecimal min, BigDecimal max) {
+            if (q != null && !haystack.contains(q))
+                return false;
+            if (min == null && max == null)
+                return true;
+            if (numeric == null)
+                return false;
+            return (min == null || numeric.compareTo(min) >= 0) && (max == null || numeric.compareTo(max) <= 0);
+        }
+
+        public long getId() {
+            return id;
         }
 
         public String getExpression() {
@@ -1,36 +1,103 @@
 package com.procalc.service;
 
+import com.procalc.engine.CalculatorEngine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.math.BigDecimal;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BinaryOperator;
 
+/**
+ * Memory registers scoped per client. Each client has a small set of named
+ * registers ({@value #DEFAULT_REGISTER} by default) updated with lock-free CAS,
+ * so clients never contend with each other. Clients idle longer than the TTL are
+ * evicted, and the number of clients is capped.
+ */
 @Service
 public class MemoryService {
-    private BigDecimal mem = BigDecimal.ZERO;
+    public static final String DEFAULT_REGISTER = "M";
 
-    public synchronized void add(BigDecimal v) {
-        mem = mem.add(v);
+    private final ClientRegistry<Registers> clients;
+    private final int maxRegisters;
+    private final Counter casRetries;
+
+    public MemoryService(MeterRegistry registry,
+            @Value("${procalc.memory.max-clients:10000}") int maxClients,
+            @Value("${procalc.memory.max-registers:16}") int maxRegisters,
+            @Value("${procalc.memory.idle-ttl-ms:1800000}") long idleMillis) {
+        this.clients = new ClientRegistry<>(Registers::new, maxClients, idleMillis);
+        this.maxRegisters = maxRegisters;
+        this.casRetries = Counter.builder("procalc.memory.cas.retries")
+                .description("Register updates retried because a concurrent update to the same register won the compare-and-set")
+                .register(registry);
+        Gauge.builder("procalc.memory.clients", clients, ClientRegistry::size).register(registry);
+    }
+
+    private static final class Registers {
+        final ConcurrentHashMap<String, AtomicReference<BigDecimal>> values = new ConcurrentHashMap<>();
+    }
+
+    private AtomicReference<BigDecimal> register(String clientId, String name) {
+        String reg = normalize(name);
+        Registers r = clients.get(clientId);
+        AtomicReference<BigDecimal> ref = r.values.get(reg);
+        if (ref != null)
+            return ref;
+        if (r.values.size() >= maxRegisters)
+            throw new IllegalArgumentException("Too many memory registers (max " + maxRegisters + ")");
+        return r.values.computeIfAbsent(reg, k -> new AtomicReference<>(BigDecimal.ZERO));
+    }
+
+    private static String normalize(String name) {
+        if (name == null || name.isBlank())
+            return DEFAULT_REGISTER;
+        String n = name.trim();
+        if (n.length() > 16 || !n.chars().allMatch(Character::isLetterOrDigit))
+            throw new IllegalArgumentException("Invalid register name: " + name);
+        return n;
     }
 
-    public synchronized void subtract(BigDecimal v) {
-        mem = mem.subtract(v);
+    /** CAS loop that counts each retry after losing to a concurrent update. */
+    private void update(AtomicReference<BigDecimal> ref, BigDecimal v, BinaryOperator<BigDecimal> op) {
+        BigDecimal prev = ref.get();
+        while (!ref.compareAndSet(prev, op.apply(prev, v))) {
+            casRetries.increment();
+            prev = ref.get();
+        }
+    }
+
+    public void add(String clientId, String register, BigDecimal v) {
+        update(register(clientId, register), v, BigDecimal::add);
     }
 
-    public synchronized void clear() {
-        mem = BigDecimal.ZERO;
+    public void subtract(String clientId, String register, BigDecimal v) {
+        update(register(clientId, register), v, BigDecimal::subtract);
     }
 
-    public synchronized BigDecimal recall() {
-        return mem;
+    public void clear(String clientId, String register) {
+        register(clientId, register).set(BigDecimal.ZERO);
+    }
+
+    public BigDecimal recall(String clientId, String register) {
+        Registers r = clients.peek(clientId);
+        AtomicReference<BigDecimal> ref = r == null ? null : r.values.get(normalize(register));
+        return ref == null ? BigDecimal.ZERO : ref.get();
     }
 
     /**
-     * Apply memory operation: expects keys "op" and "value"
+     * Apply memory operation: expects keys "op" and "value", optional "register"
      * op in {MC, MR, M+, M-}
      */
-    public synchronized void apply(java.util.Map<String, String> body) {
+    public void apply(String clientId, java.util.Map<String, String> body) {
         String op = body.getOrDefault("op", "").toUpperCase();
+        String register = body.get("register");
         String valStr = body.getOrDefault("value", "0");
         BigDecimal val;
         try {
@@ -39,9 +106,9 @@ public class MemoryService {
             val = BigDecimal.ZERO;
         }
         switch (op) {
-            case "MC" -> clear();
-            case "M+" -> add(val);
-            case "M-" -> subtract(val);
+            case "MC" -> clear(clientId, register);
+            case "M+" -> add(clientId, register, val);
+            case "M-" -> subtract(clientId, register, val);
             case "MR" -> {
                 /* no-op */ }
             default -> {
@@ -49,7 +116,16 @@ public class MemoryService {
         }
     }
 
-    public Map<String, String> recallAsMap() {
-        return Map.of("memory", mem.toPlainString());
+    /**
+     * The default register as "memory", plus every named register of the client.
+     */
+    public Map<String, Object> recallAsMap(String clientId) {
+        Map<String, String> registers = new TreeMap<>();
+        Registers r = clients.peek(clientId);
+        if (r != null)
+            r.values.forEach((name, ref) -> registers.put(name, CalculatorEngine.plain(ref.get())));
+        return Map.of(
+                "memory", registers.getOrDefault(DEFAULT_REGISTER, "0"),
+                "registers", registers);
     }
 }
@@ -0,0 +1,153 @@
+package com.procalc.service;
+
+import com.procalc.engine.CalculatorEngine;
+import com.procalc.engine.CompiledExpression;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.function.IntConsumer;
+
+/**
+ * Samples an expression in {@code x} for plotting. The expression is compiled
+ * once, unoptimized as for {@code mode=DOUBLE}, and evaluated in double
+ * precision, so each point is what DOUBLE mode gives at that x: first at one
+ * point per pixel column,
+ * then intervals whose ends jump by more than 1/{@value #RESOLUTION} of the
+ * plotted range, or where the function is defined at only one end, are bisected
+ * up to {@code refine-depth} times. Both passes run in chunks on the shared
+ * compute pool, each chunk holding one of its permits
+ * ({@link ComputeService#submitAll}).
+ */
+@Service
+public class PlotService {
+    public static final String VARIABLE = "x";
+    private static final int RESOLUTION = 64;
+
+    private final EngineService engineService;
+    private final ComputeService computeService;
+    private final int maxWidth;
+    private final int refineDepth;
+
+    public PlotService(EngineService engineService, ComputeService computeService,
+            @Value("${procalc.plot.max-width:4096}") int maxWidth,
+            @Value("${procalc.plot.refine-depth:4}") int refineDepth) {
+        this.engineService = engineService;
+        this.computeService = computeService;
+        this.maxWidth = maxWidth;
+        this.refineDepth = refineDepth;
+    }
+
+    /**
+     * Points as packed {@code x, y} pairs in increasing x; y is NaN where the
+     * expression is undefined, so a plot should break the line there.
+     */
+    public float[] plot(String expression, double xmin, double xmax, int width) {
+        if (!Double.isFinite(xmin) || !Double.isFinite(xmax) || !(xmin < xmax))
+            throw new IllegalArgumentException("Plot range must be finite with xmin < xmax");
+        if (width < 2 || width > maxWidth)
+            throw new IllegalArgumentException("Plot width must be between 2 and " + maxWidth);
+        CompiledExpression compiled = engineService.compile(expression, List.of(VARIABLE), CalculatorEngine.Mode.DOUBLE);
+
+        double step = (xmax - xmin) / (width - 1);
+        double[] ys = new double[width];
+        int chunks = computeService.chunks(width);
+        int chunk = Math.max(16, (width + chunks - 1) / chunks);
+        inChunks(width, chunk, (start) -> {
+            double[] x = new double[1];
+            for (int i = start; i < Math.min(width, start + chunk); i++) {
+                x[0] = xmin + i * step;
+                ys[i] = compiled.valueAt(x);
+            }
+        });
+
+        double ymin = Double.POSITIVE_INFINITY, ymax = Double.NEGATIVE_INFINITY;
+        for (double y : ys) {
+            if (Double.isFinite(y)) {
+                ymin = Math.min(ymin, y);
+                ymax = Math.max(ymax, y);
+            }
+        }
+        double tolerance = ymax > ymin ? (ymax - ymin) / RESOLUTION : Double.POSITIVE_INFINITY;
+
+        Points[] parts = new Points[(width + chunk - 1) / chunk];
+        inChunks(width, chunk, start -> {
+            Points out = new Points(chunk * 2);
+            double[] x = new double[1];
+            int end = Math.min(width, start + chunk);
+            for (int i = start; i < end; i++) {
+                double x0 = xmin + i * step;
+                out.add(x0, ys[i]);
+                if (i + 1 < width)
+                    refine(compiled, x, x0, ys[i], x0 + step, ys[i + 1], tolerance, refineDepth, out);
+            }
+            parts[start / chunk] = out;
+        });
+
+        int total = 0;
+        for (Points p : parts)
+            total += p.size;
+        float[] packed = new float[total];
+        int pos = 0;
+        for (Points p : parts) {
+            System.arraycopy(p.values, 0, packed, pos, p.size);
+            pos += p.size;
+        }
+        return packed;
+    }
+
+    /** Add the interior points of (x0, x1), bisecting while the interval is steep or broken. */
+    private static void refine(CompiledExpression compiled, double[] x, double x0, double y0, double x1, double y1,
+            double tolerance, int depth, Points out) {
+        if (depth == 0)
+            return;
+        boolean f0 = Double.isFinite(y0), f1 = Double.isFinite(y1);
+        if (f0 && f1 ? Math.abs(y1 - y0) <= tolerance : f0 == f1)
+            return;
+        double xm = (x0 + x1) / 2;
+        x[0] = xm;
+        double ym = compiled.valueAt(x);
+        refine(compiled, x, x0, y0, xm, ym, tolerance, depth - 1, out);
+        out.add(xm, ym);
+        refine(compiled, x, xm, ym, x1, y1, tolerance, depth - 1, out);
+    }
+
+    /** Run {@code work} for each chunk start in [0, n) on the pool and wait for all. */
+    private void inChunks(int n, int chunk, IntConsumer work) {
+        List<Runnable> tasks = new ArrayList<>();
+        for (int start = 0; start < n; start += chunk) {
+            int s = start;
+            tasks.add(() -> work.accept(s));
+        }
+        try {
+            for (Future<?> f : computeService.submitAll(tasks))
+                f.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Plot interrupted");
+        } catch (ExecutionException ex) {
+            throw new IllegalStateException(ex.getCause());
+        }
+    }
+
+    /** Growable packed float pairs. */
+    private static final class Points {
+        float[] values;
+        int size;
+
+        Points(int capacity) {
+            values = new float[Math.max(capacity, 2)];
+        }
+
+        void add(double x, double y) {
+            if (size + 2 > values.length)
+                values = Arrays.copyOf(values, values.length * 2);
+            values[size++] = (float) x;
+            values[size++] = (float) y;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.procalc.service;
+
+import com.procalc.dto.EvaluateResponse;
+import com.procalc.engine.CalculatorEngine;
+import com.procalc.engine.IncrementalEvaluator;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.math.MathContext;
+
+/**
+ * Live preview with a session per client. Each client's last input is kept
+ * with its parse state ({@link IncrementalEvaluator}), so a keystroke re-lexes
+ * only the changed suffix and reuses the values already computed for the rest.
+ * Errors, double mode, a precision other than the default and input outside
+ * the cost guard take the full path through {@link ComputeService#preview}.
+ * Session previews hold a compute permit while they run, like every other
+ * evaluation. A null client id (an anonymous caller) always takes the full path.
+ */
+@Service
+public class PreviewService {
+    private final ComputeService computeService;
+    private final EngineService engineService;
+    private final ClientRegistry<IncrementalEvaluator> sessions;
+    private final boolean incremental;
+    private final Counter reusedTokens;
+    private final Counter lexedTokens;
+    private final Counter fullPreviews;
+
+    public PreviewService(ComputeService computeService, EngineService engineService, MeterRegistry registry,
+            @Value("${procalc.preview.incremental:true}") boolean incremental,
+            @Value("${procalc.preview.max-sessions:10000}") int maxSessions,
+            @Value("${procalc.preview.idle-ttl-ms:600000}") long idleMillis) {
+        this.computeService = computeService;
+        this.engineService = engineService;
+        this.incremental = incremental;
+        this.sessions = new ClientRegistry<>(engineService::newPreviewSession, maxSessions, idleMillis);
+        this.reusedTokens = Counter.builder("procalc.preview.tokens")
+                .description("Preview tokens whose parse state was kept from the previous input")
+                .tag("kind", "reused")
+                .register(registry);
+        this.lexedTokens = Counter.builder("procalc.preview.tokens")
+                .description("Preview tokens lexed and parsed again")
+                .tag("kind", "lexed")
+                .register(registry);
+        this.fullPreviews = Counter.builder("procalc.preview.full")
+                .description("Previews the session could not answer, evaluated in full")
+                .register(registry);
+        Gauge.builder("procalc.preview.sessions", sessions, ClientRegistry::size).register(registry);
+    }
+
+    public EvaluateResponse preview(String clientId, String expression, CalculatorEngine.Mode mode) {
+        return preview(clientId, expression, mode, null);
+    }
+
+    /** Preview at the precision of {@code mc}; null means the default. */
+    public EvaluateResponse preview(String clientId, String expression, CalculatorEngine.Mode mode, MathContext mc) {
+        if (incremental && clientId != null && mode == CalculatorEngine.Mode.BIGDECIMAL && !engineService.tooLong(expression)
+                && (mc == null || mc.equals(engineService.defaultContext()))) {
+            IncrementalEvaluator session = sessions.get(clientId);
+            EvaluateResponse r;
+            try (ComputeService.Permit permit = computeService.admit()) {
+                synchronized (session) {
+                    r = engineService.preview(session, expression);
+                    reusedTokens.increment(session.reusedTokens());
+                    lexedTokens.increment(session.lexedTokens());
+                }
+            }
+            if (r != null)
+                return r;
+            fullPreviews.increment();
+        }
+        return computeService.preview(clientId, expression, mode, mc);
+    }
+}
@@ -0,0 +1,171 @@
+package com.procalc.service;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongFunction;
+
+/**
+ * Concurrent LRU cache bounded by entry count, approximate heap size and TTL.
+ * Keys are spread over independently locked segments so concurrent lookups
+ * rarely contend; each segment keeps its own access-ordered LRU list.
+ */
+public class ResultCache<V> {
+    private static final int SEGMENTS = 16;
+    /** Rough per-entry overhead: map node, key object, value wrapper. */
+    private static final long ENTRY_OVERHEAD = 96;
+
+    private final Segment[] segments;
+    private final long ttlNanos;
+    private final ToLongFunction<V> weigher;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param maxEntries total entry limit across all segments (0 disables caching)
+     * @param maxBytes   approximate heap limit across all segments
+     * @param ttlMillis  time an entry stays valid after insertion (0 = no expiry)
+     * @param weigher    estimated heap size of a value in bytes
+     */
+    @SuppressWarnings("unchecked")
+    public ResultCache(int maxEntries, long maxBytes, long ttlMillis, ToLongFunction<V> weigher) {
+        this.ttlNanos = ttlMillis <= 0 ? Long.MAX_VALUE : ttlMillis * 1_000_000L;
+        this.weigher = weigher;
+        this.segments = (Segment[]) new ResultCache<?>.Segment[SEGMENTS];
+        int perSegmentEntries = maxEntries <= 0 ? 0 : Math.max(1, maxEntries / SEGMENTS);
+        long perSegmentBytes = Math.max(0, maxBytes / SEGMENTS);
+        for (int i = 0; i < SEGMENTS; i++)
+            segments[i] = new Segment(perSegmentEntries, perSegmentBytes);
+    }
+
+    private Segment segmentFor(String key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return segments[h & (SEGMENTS - 1)];
+    }
+
+    public V get(String key) {
+        V v = segmentFor(key).get(key);
+        if (v == null)
+            misses.increment();
+        else
+            hits.increment();
+        return v;
+    }
+
+    public void put(String key, V value) {
+        segmentFor(key).put(key, value);
+    }
+
+    public void clear() {
+        for (Segment s : segments)
+            s.clear();
+    }
+
+    public long size() {
+        long n = 0;
+        for (Segment s : segments)
+            n += s.size();
+        return n;
+    }
+
+    public long weightBytes() {
+        long n = 0;
+        for (Segment s : segments)
+            n += s.bytes();
+        return n;
+    }
+
+    public long hitCount() {
+        return hits.sum();
+    }
+
+    public long missCount() {
+        return misses.sum();
+    }
+
+    public long evictionCount() {
+        return evictions.sum();
+    }
+
+    public Map<String, Object> stats() {
+        return Map.of(
+                "size", size(),
+                "bytes", weightBytes(),
+                "hits", hitCount(),
+                "misses", missCount(),
+                "evictions", evictionCount());
+    }
+
+    private static final class Entry<V> {
+        final V value;
+        final long weight;
+        final long created;
+
+        Entry(V value, long weight, long created) {
+            this.value = value;
+            this.weight = weight;
+            this.created = created;
+        }
+    }
+
+    private final class Segment {
+        private final LinkedHashMap<String, Entry<V>> map = new LinkedHashMap<>(16, 0.75f, true);
+        private final int maxEntries;
+        private final long maxBytes;
+        private long bytes;
+
+        Segment(int maxEntries, long maxBytes) {
+            this.maxEntries = maxEntries;
+            this.maxBytes = maxBytes;
+        }
+
+        synchronized V get(String key) {
+            Entry<V> e = map.get(key);
+            if (e == null)
+                return null;
+            if (System.nanoTime() - e.created > ttlNanos) {
+                map.remove(key);
+                bytes -= e.weight;
+                evictions.increment();
+                return null;
+            }
+            return e.value;
+        }
+
+        synchronized void put(String key, V value) {
+            if (maxEntries == 0)
+                return;
+            long weight = ENTRY_OVERHEAD + 2L * key.length() + weigher.applyAsLong(value);
+            if (weight > maxBytes)
+                return;
+            Entry<V> old = map.put(key, new Entry<>(value, weight, System.nanoTime()));
+            if (old != null)
+                bytes -= old.weight;
+            bytes += weight;
+            Iterator<Entry<V>> it = map.values().iterator();
+            while ((map.size() > maxEntries || bytes > maxBytes) && it.hasNext()) {
+                Entry<V> eldest = it.next();
+                it.remove();
+                bytes -= eldest.weight;
+                evictions.increment();
+            }
+        }
+
+        synchronized void clear() {
+            map.clear();
+            bytes = 0;
+        }
+
+        synchronized int size() {
+            return map.size();
+        }
+
+        synchronized long bytes() {
+            return bytes;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.procalc.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SequenceWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.procalc.dto.EvaluateResponse;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+
+/**
+ * Evaluates newline-delimited expressions and writes one JSON result per line.
+ * Input is read one line at a time and each result is written before the next
+ * line is read, so memory stays flat regardless of input size and a slow client
+ * throttles reading through the blocking output stream. A stream holds one
+ * compute permit while it runs, taken before anything is written, so a
+ * saturated node refuses it with 429.
+ */
+@Service
+public class StreamService {
+    private static final int FLUSH_EVERY = 256;
+
+    private final EngineService engineService;
+    private final ComputeService computeService;
+    private final ObjectMapper mapper;
+    private final int maxLineLength;
+
+    public StreamService(EngineService engineService, ComputeService computeService, ObjectMapper mapper,
+            @Value("${procalc.stream.max-line-length:10000}") int maxLineLength) {
+        this.engineService = engineService;
+        this.computeService = computeService;
+        this.mapper = mapper;
+        this.maxLineLength = maxLineLength;
+    }
+
+    /**
+     * @return number of lines evaluated
+     */
+    public long evaluate(Reader in, OutputStream out) throws IOException {
+        long count = 0;
+        StringBuilder line = new StringBuilder();
+        try (ComputeService.Permit permit = computeService.admit();
+                SequenceWriter seq = mapper.writer()
+                .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE)
+                .withRootValueSeparator("\n")
+                .writeValues(out)) {
+            char[] buf = new char[8192];
+            boolean overflow = false;
+            int n;
+            while ((n = in.read(buf)) != -1) {
+                for (int i = 0; i < n; i++) {
+                    char c = buf[i];
+                    if (c == '\n') {
+                        seq.write(result(line, overflow));
+                        line.setLength(0);
+                        overflow = false;
+                        if (++count % FLUSH_EVERY == 0)
+                            seq.flush();
+                    } else if (c != '\r') {
+                        if (line.length() < maxLineLength)
+                            line.append(c);
+                        else
+                            overflow = true;
+                    }
+                }
+            }
+            if (line.length() > 0 || overflow) {
+                seq.write(result(line, overflow));
+                count++;
+            }
+            seq.flush();
+            if (count > 0)
+                out.write('\n');
+        }
+        return count;
+    }
+
+    private EvaluateResponse result(StringBuilder line, boolean overflow) {
+        if (overflow) {
+            EvaluateResponse r = new EvaluateResponse(null, null, null, "ERROR");
+            r.setMessage("Line too long");
+            return r;
+        }
+        return engineService.evaluateUncached(line.toString());
+    }
+}
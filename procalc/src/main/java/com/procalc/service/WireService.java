@@ -0,0 +1,168 @@
+package com.procalc.service;
+
+import com.procalc.dto.EvaluateResponse;
+import com.procalc.dto.ResponseShape;
+import com.procalc.engine.CalculatorEngine;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Compact binary protocol for machine clients: length-prefixed frames in both
+ * directions, evaluated through {@link EngineService#evaluate(String, CalculatorEngine.Mode, ResponseShape)}
+ * like JSON requests but without Jackson, echoed strings or display formatting.
+ *
+ * <pre>
+ * request  = int32 length, int32 id, uint8 flags (bit 0: DOUBLE mode), UTF-8 expression
+ * response = int32 length, int32 id, uint8 status (0 OK, 1 ERROR), body
+ * </pre>
+ * Integers are big-endian and {@code length} counts the bytes after it. An OK
+ * body is the result as packed decimal: two characters of its result string per
+ * byte, high nibble first, with 0-9 for digits, {@value #NIBBLE_POINT} for '.',
+ * {@value #NIBBLE_MINUS} for '-', {@value #NIBBLE_EXPONENT} for 'E' and
+ * {@value #NIBBLE_PLUS} for '+' (results too long for plain form are
+ * scientific), and {@value #NIBBLE_PAD} padding an odd count.
+ * An ERROR body is the UTF-8 message.
+ *
+ * Requests are pipelined: a client may send any number of frames without
+ * waiting, and responses come back in request order, carrying the request's id.
+ * Responses are buffered while more request bytes are already waiting and
+ * flushed when the input runs dry, so a busy connection writes in large chunks
+ * and an idle one gets its answers at once. An exchange holds one compute
+ * permit while it runs, taken before anything is written, so a saturated node
+ * refuses it with 429.
+ */
+@Service
+public class WireService {
+    static final int OK = 0;
+    static final int ERROR = 1;
+    static final int FLAG_DOUBLE = 1;
+    static final int NIBBLE_POINT = 0xA;
+    static final int NIBBLE_MINUS = 0xB;
+    static final int NIBBLE_EXPONENT = 0xC;
+    static final int NIBBLE_PLUS = 0xD;
+    static final int NIBBLE_PAD = 0xF;
+    static final String TOO_LARGE_MESSAGE = "Frame too large";
+
+    private final EngineService engineService;
+    private final ComputeService computeService;
+    private final int maxFrameBytes;
+
+    public WireService(EngineService engineService, ComputeService computeService,
+            @Value("${procalc.wire.max-frame-bytes:65536}") int maxFrameBytes) {
+        this.engineService = engineService;
+        this.computeService = computeService;
+        this.maxFrameBytes = maxFrameBytes;
+    }
+
+    /**
+     * Answer frames until the input ends. A frame cut short by the end of input
+     * is dropped, and a length too short for the header ends the exchange.
+     *
+     * @return number of frames answered
+     */
+    public long serve(InputStream in, OutputStream out) throws IOException {
+        DataInputStream input = new DataInputStream(new BufferedInputStream(in, 16 * 1024));
+        DataOutputStream output = new DataOutputStream(new BufferedOutputStream(out, 16 * 1024));
+        byte[] payload = new byte[256];
+        long count = 0;
+        try (ComputeService.Permit permit = computeService.admit()) {
+            while (true) {
+                int length;
+                try {
+                    length = input.readInt();
+                } catch (EOFException ex) {
+                    break;
+                }
+                if (length < 5)
+                    break;
+                int id = input.readInt();
+                int flags = input.readUnsignedByte();
+                int textBytes = length - 5;
+                if (length > maxFrameBytes) {
+                    input.skipNBytes(textBytes);
+                    writeError(output, id, TOO_LARGE_MESSAGE);
+                } else {
+                    if (payload.length < textBytes)
+                        payload = new byte[Math.max(textBytes, payload.length * 2)];
+                    input.readFully(payload, 0, textBytes);
+                    String expression = new String(payload, 0, textBytes, StandardCharsets.UTF_8);
+                    CalculatorEngine.Mode mode = (flags & FLAG_DOUBLE) != 0
+                            ? CalculatorEngine.Mode.DOUBLE : CalculatorEngine.Mode.BIGDECIMAL;
+                    EvaluateResponse r = engineService.evaluate(expression, mode, ResponseShape.RESULT);
+                    if (r.getResult() != null)
+                        writeResult(output, id, r.getResult());
+                    else
+                        writeError(output, id, r.getMessage());
+                }
+                count++;
+                if (input.available() == 0)
+                    output.flush();
+            }
+        } catch (EOFException ex) {
+            // frame cut short: answer what was complete
+        }
+        output.flush();
+        return count;
+    }
+
+    private static void writeResult(DataOutputStream out, int id, String plain) throws IOException {
+        int n = (plain.length() + 1) / 2;
+        out.writeInt(5 + n);
+        out.writeInt(id);
+        out.writeByte(OK);
+        for (int i = 0; i < plain.length(); i += 2) {
+            int hi = nibble(plain.charAt(i));
+            int lo = i + 1 < plain.length() ? nibble(plain.charAt(i + 1)) : NIBBLE_PAD;
+            out.writeByte(hi << 4 | lo);
+        }
+    }
+
+    private static void writeError(DataOutputStream out, int id, String message) throws IOException {
+        byte[] text = (message == null ? "" : message).getBytes(StandardCharsets.UTF_8);
+        out.writeInt(5 + text.length);
+        out.writeInt(id);
+        out.writeByte(ERROR);
+        out.write(text);
+    }
+
+    private static int nibble(char c) {
+        return switch (c) {
+            case '.' -> NIBBLE_POINT;
+            case '-' -> NIBBLE_MINUS;
+            case 'E' -> NIBBLE_EXPONENT;
+            case '+' -> NIBBLE_PLUS;
+            default -> c - '0';
+        };
+    }
+
+    /** The result string packed in {@code bytes[offset, offset + length)}. */
+    public static String unpack(byte[] bytes, int offset, int length) {
+        StringBuilder sb = new StringBuilder(length * 2);
+        for (int i = offset; i < offset + length; i++) {
+            appendNibble(sb, (bytes[i] >> 4) & 0xF);
+            appendNibble(sb, bytes[i] & 0xF);
+        }
+        return sb.toString();
+    }
+
+    private static void appendNibble(StringBuilder sb, int nibble) {
+        switch (nibble) {
+            case NIBBLE_POINT -> sb.append('.');
+            case NIBBLE_MINUS -> sb.append('-');
+            case NIBBLE_EXPONENT -> sb.append('E');
+            case NIBBLE_PLUS -> sb.append('+');
+            case NIBBLE_PAD -> { }
+            default -> sb.append((char) ('0' + nibble));
+        }
+    }
+}
@@ -0,0 +1,324 @@
+package com.procalc.controller;
+
+import com.procalc.service.WireService;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.actuate.observability.AutoConfigureObservability;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.startsWith;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest
+@AutoConfigureMockMvc
+@AutoConfigureObservability
+class CalculatorControllerTest {
+
+    @Autowired
+    private MockMvc mvc;
+
+    @Test
+    void evaluatesBatchInOrder() throws Exception {
+        mvc.perform(post("/api/v1/evaluate/batch")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"expressions\":[\"1+1\",\"1/0\",\"2^10\"]}"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(3))
+                .andExpect(jsonPath("$[0].formatted").value("2"))
+                .andExpect(jsonPath("$[1].message").value("Division by zero"))
+                .andExpect(jsonPath("$[2].formatted").value("1024"));
+    }
+
+    @Test
+    void streamsNdjsonResults() throws Exception {
+        mvc.perform(post("/api/v1/evaluate/stream")
+                        .contentType(MediaType.TEXT_PLAIN)
+                        .content("1+1\n3×4\r\n1/0"))
+                .andExpect(status().isOk())
+                .andExpect(content().contentTypeCompatibleWith("application/x-ndjson"))
+                .andExpect(content().string(
+                        "{\"expression\":\"1+1\",\"result\":\"2\",\"formatted\":\"2\",\"status\":\"OK\",\"message\":null}\n"
+                        + "{\"expression\":\"3×4\",\"result\":\"12\",\"formatted\":\"12\",\"status\":\"OK\",\"message\":null}\n"
+                        + "{\"expression\":\"1/0\",\"result\":null,\"formatted\":null,\"status\":\"ERROR\",\"message\":\"Division by zero\"}\n"));
+    }
+
+    @Test
+    void evaluatesOneExpressionOverColumns() throws Exception {
+        mvc.perform(post("/api/v1/evaluate/vector")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"expression\":\"a*b+1\",\"bindings\":{\"a\":[1,2,3],\"b\":[\"10\",\"20\",\"0.5\"]}}"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(3))
+                .andExpect(jsonPath("$[0].formatted").value("11"))
+                .andExpect(jsonPath("$[1].formatted").value("41"))
+                .andExpect(jsonPath("$[2].formatted").value("2.5"));
+    }
+
+    @Test
+    void exposesEvaluationMetricsForPrometheus() throws Exception {
+        mvc.perform(post("/api/v1/evaluate")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"expression\":\"1 + nope\"}"))
+                .andExpect(jsonPath("$.status").value("ERROR"));
+        mvc.perform(get("/actuator/prometheus"))
+                .andExpect(status().isOk())
+                .andExpect(content().string(containsString("procalc_eval_phase_seconds_bucket")))
+                .andExpect(content().string(containsString("procalc_eval_errors_total{application=\"procalc\",type=\"syntax\"")))
+                .andExpect(content().string(containsString("procalc_expression_tokens_count")))
+                .andExpect(content().string(containsString("procalc_memory_cas_retries_total")))
+                .andExpect(content().string(containsString("procalc_history_read_races_total")));
+    }
+
+    @Test
+    void memoryIsScopedPerClientWithNamedRegisters() throws Exception {
+        mvc.perform(post("/api/v1/memory").header("X-Client-Id", "alice")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"op\":\"M+\",\"value\":\"5\"}"))
+                .andExpect(jsonPath("$.memory").value("5"));
+        mvc.perform(post("/api/v1/memory").header("X-Client-Id", "alice")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"op\":\"M-\",\"value\":\"2\",\"register\":\"tax\"}"))
+                .andExpect(jsonPath("$.memory").value("5"))
+                .andExpect(jsonPath("$.registers.tax").value("-2"));
+        mvc.perform(get("/api/v1/memory").header("X-Client-Id", "bob"))
+                .andExpect(jsonPath("$.memory").value("0"));
+    }
+
+    @Test
+    void historyIsPagedAndFilteredPerClient() throws Exception {
+        for (String expr : new String[] {"1+1", "2*5", "3*7"}) {
+            mvc.perform(post("/api/v1/evaluate").header("X-Client-Id", "carol")
+                            .contentType(MediaType.APPLICATION_JSON)
+                            .content("{\"expression\":\"" + expr + "\"}"))
+                    .andExpect(status().isOk());
+        }
+        String cursor = mvc.perform(get("/api/v1/history?limit=2").header("X-Client-Id", "carol"))
+                .andExpect(jsonPath("$.length()").value(2))
+                .andExpect(jsonPath("$[0].expression").value("3*7"))
+                .andExpect(jsonPath("$[1].expression").value("2*5"))
+                .andReturn().getResponse().getHeader("X-Next-Cursor");
+        mvc.perform(get("/api/v1/history?limit=2&cursor=" + cursor).header("X-Client-Id", "carol"))
+                .andExpect(header().doesNotExist("X-Next-Cursor"))
+                .andExpect(jsonPath("$.length()").value(1))
+                .andExpect(jsonPath("$[0].expression").value("1+1"));
+        mvc.perform(get("/api/v1/history?min=5&max=20").header("X-Client-Id", "carol"))
+                .andExpect(jsonPath("$.length()").value(1))
+                .andExpect(jsonPath("$[0].result").value("10"));
+        mvc.perform(get("/api/v1/history").param("q", "1+").header("X-Client-Id", "carol"))
+                .andExpect(jsonPath("$.length()").value(1))
+                .andExpect(jsonPath("$[0].expression").value("1+1"));
+        mvc.perform(get("/api/v1/history").header("X-Client-Id", "dave"))
+                .andExpect(jsonPath("$.length()").value(0));
+    }
+
+    @Test
+    void anonymousCallersGetNoSession() throws Exception {
+        var evaluated = mvc.perform(post("/api/v1/evaluate").contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"expression\":\"6*7\"}"))
+                .andExpect(status().isOk())
+                .andReturn();
+        assertNull(evaluated.getRequest().getSession(false));
+        var previewed = mvc.perform(post("/api/v1/preview").contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"expression\":\"6*\"}"))
+                .andExpect(status().isOk())
+                .andReturn();
+        assertNull(previewed.getRequest().getSession(false));
+        mvc.perform(get("/api/v1/history").param("q", "6*7").header("X-Client-Id", "erin"))
+                .andExpect(jsonPath("$.length()").value(0));
+    }
+
+    @Test
+    void anonymousCallersShareNoHistoryOrMemory() throws Exception {
+        mvc.perform(post("/api/v1/evaluate").contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"expression\":\"1234+1\"}"))
+                .andExpect(status().isOk());
+        mvc.perform(get("/api/v1/history").param("q", "1234+1"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(0));
+        mvc.perform(post("/api/v1/memory").contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"op\":\"M+\",\"value\":\"5\"}"))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.message").value("X-Client-Id required"));
+        mvc.perform(get("/api/v1/memory"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void plotRefinesNearDiscontinuities() throws Exception {
+        var response = mvc.perform(get("/api/v1/plot").param("expression", "1/x")
+                        .param("xmin", "-1").param("xmax", "1").param("width", "11"))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_OCTET_STREAM))
+                .andReturn().getResponse();
+        int points = Integer.parseInt(response.getHeader("X-Plot-Points"));
+        assertTrue(points > 11, "expected extra samples around x = 0");
+        FloatBuffer xy = ByteBuffer.wrap(response.getContentAsByteArray()).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+        assertEquals(2 * points, xy.remaining());
+        assertEquals(-1f, xy.get(0));
+        assertEquals(-1f, xy.get(1));
+        assertTrue(Float.isNaN(xy.get(2 * (points / 2) + 1)), "1/0 is a gap");
+
+        mvc.perform(post("/api/v1/plot").contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"expression\":\"x^2\",\"width\":1}"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void plotAgreesWithDoubleMode() throws Exception {
+        // exact arithmetic would fold 10^400/10^399 to 10; in doubles it overflows
+        mvc.perform(post("/api/v1/evaluate").contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"expression\":\"1*(10^400/10^399)\",\"mode\":\"DOUBLE\"}"))
+                .andExpect(jsonPath("$.status").value("ERROR"));
+        var response = mvc.perform(get("/api/v1/plot").param("expression", "x*(10^400/10^399)")
+                        .param("xmin", "1").param("xmax", "2").param("width", "3"))
+                .andExpect(status().isOk())
+                .andReturn().getResponse();
+        FloatBuffer xy = ByteBuffer.wrap(response.getContentAsByteArray()).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+        for (int i = 1; i < xy.remaining(); i += 2)
+            assertTrue(Float.isNaN(xy.get(i)), "point " + i / 2);
+    }
+
+    @Test
+    void answersPipelinedBinaryFrames() throws Exception {
+        ByteArrayOutputStream frames = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(frames);
+        String[] expressions = { "1+2", "1/0", "-1.5*3" };
+        for (int i = 0; i < expressions.length; i++) {
+            byte[] text = expressions[i].getBytes(StandardCharsets.UTF_8);
+            out.writeInt(5 + text.length);
+            out.writeInt(100 + i);
+            out.writeByte(0);
+            out.write(text);
+        }
+
+        byte[] body = mvc.perform(post("/api/v1/evaluate/wire")
+                        .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                        .content(frames.toByteArray()))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsByteArray();
+
+        ByteBuffer in = ByteBuffer.wrap(body);
+        String[] expected = { "0:3", "1:Division by zero", "0:-4.5" };
+        for (int i = 0; i < expected.length; i++) {
+            int length = in.getInt();
+            assertEquals(100 + i, in.getInt());
+            int status = in.get();
+            byte[] rest = new byte[length - 5];
+            in.get(rest);
+            String value = status == 0 ? WireService.unpack(rest, 0, rest.length) : new String(rest, StandardCharsets.UTF_8);
+            assertEquals(expected[i], status + ":" + value);
+        }
+        assertEquals(0, in.remaining());
+    }
+
+    @Test
+    void responseShapeTrimsFields() throws Exception {
+        mvc.perform(post("/api/v1/evaluate")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"expression\":\"170!\",\"shape\":\"result\"}"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.result").value(startsWith("7257415615307998967396728211")))
+                .andExpect(jsonPath("$.formatted").doesNotExist())
+                .andExpect(jsonPath("$.expression").doesNotExist());
+        mvc.perform(post("/api/v1/evaluate")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"expression\":\"170!\",\"shape\":\"FORMATTED\"}"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.formatted").value("7.257415615307998967396728211E+306"))
+                .andExpect(jsonPath("$.result").doesNotExist());
+        // too long to expand: the result falls back to scientific notation
+        mvc.perform(post("/api/v1/evaluate")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"expression\":\"10^9000 * 10^9000\",\"shape\":\"RESULT\"}"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.result").value("1.000000000000000000000000000E+18000"));
+        mvc.perform(post("/api/v1/evaluate")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"expression\":\"1\",\"shape\":\"bogus\"}"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void precisionAndRoundingPerRequest() throws Exception {
+        mvc.perform(post("/api/v1/evaluate")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"expression\":\"1/3\",\"precision\":50}"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.result").value("0." + "3".repeat(50)));
+        mvc.perform(post("/api/v1/evaluate")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"expression\":\"2/3\",\"precision\":12,\"rounding\":\"down\"}"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.result").value("0.666666666666"));
+        // the default context is cached separately from the one above
+        mvc.perform(post("/api/v1/evaluate")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"expression\":\"2/3\"}"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.result").value("0.6666666666666666666666666667"));
+        mvc.perform(post("/api/v1/preview")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"expression\":\"pi\",\"precision\":40}"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.result").value("3.141592653589793238462643383279502884197"));
+        mvc.perform(post("/api/v1/evaluate")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"expression\":\"1\",\"precision\":0}"))
+                .andExpect(status().isBadRequest());
+        mvc.perform(post("/api/v1/evaluate")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"expression\":\"1\",\"rounding\":\"UNNECESSARY\"}"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void validatesWithoutEvaluatingAndReportsPositions() throws Exception {
+        mvc.perform(post("/api/v1/validate")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"expression\":\"(1 + 2) * 3\"}"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.valid").value(true))
+                .andExpect(jsonPath("$.errors.length()").value(0));
+        mvc.perform(post("/api/v1/validate")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"expression\":\"(1 + ) # 2\"}"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.valid").value(false))
+                .andExpect(jsonPath("$.errors[0].message").value("Malformed expression"))
+                .andExpect(jsonPath("$.errors[0].position").value(5))
+                .andExpect(jsonPath("$.errors[1].message").value("Unknown character: #"))
+                .andExpect(jsonPath("$.errors[1].position").value(7))
+                .andExpect(jsonPath("$.errors[2].message").value("Missing operator"))
+                .andExpect(jsonPath("$.errors[2].position").value(9));
+        mvc.perform(post("/api/v1/evaluate")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"expression\":\"2 * (3 + 4\"}"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.message").value("Mismatched parentheses"))
+                .andExpect(jsonPath("$.position").value(4));
+        mvc.perform(post("/api/v1/evaluate/vector")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"expression\":\"a +\",\"bindings\":{\"a\":[1]}}"))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.position").value(3));
+    }
+}
@@ -0,0 +1,121 @@
+package com.procalc.engine;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BigMathTest {
+
+    private static final MathContext MC40 = new MathContext(40, RoundingMode.HALF_EVEN);
+
+    private static void assertDigits(String expected, BigDecimal actual) {
+        BigDecimal e = new BigDecimal(expected);
+        BigDecimal tolerance = e.abs().max(BigDecimal.ONE).movePointLeft(38);
+        assertTrue(e.subtract(actual).abs().compareTo(tolerance) <= 0,
+                () -> "expected " + expected + " but was " + actual);
+    }
+
+    @Test
+    void constantsAreCorrectBeyondDoublePrecision() {
+        assertDigits("3.141592653589793238462643383279502884197", BigMath.pi(MC40));
+        assertDigits("2.718281828459045235360287471352662497757", BigMath.e(MC40));
+        assertEquals(new BigDecimal("3.14159"), BigMath.pi(new MathContext(6)));
+    }
+
+    @Test
+    void elementaryFunctionsMatchReferenceValues() {
+        assertDigits("1.414213562373095048801688724209698078570", BigMath.sqrt(BigDecimal.valueOf(2), MC40));
+        assertDigits("0.6931471805599453094172321214581765680755", BigMath.ln(BigDecimal.valueOf(2), MC40));
+        assertDigits("2.302585092994045684017991454684364207601", BigMath.ln(BigDecimal.TEN, MC40));
+        assertDigits("0.3010299956639811952137388947244930267682", BigMath.log10(BigDecimal.valueOf(2), MC40));
+        assertDigits("0.8414709848078965066525023216302989996226", BigMath.sin(BigDecimal.ONE, MC40));
+        assertDigits("0.5403023058681397174009366074429766037323", BigMath.cos(BigDecimal.ONE, MC40));
+        assertDigits("1.557407724654902230506974807458360173087", BigMath.tan(BigDecimal.ONE, MC40));
+        assertDigits("-0.5063656411097587936565576104597854320650", BigMath.sin(BigDecimal.valueOf(100), MC40));
+        assertDigits("0.00004539992976248485153559151556055061023791", BigMath.exp(BigDecimal.valueOf(-10), MC40));
+        assertDigits("1.414213562373095048801688724209698078570",
+                BigMath.pow(BigDecimal.valueOf(2), new BigDecimal("0.5"), MC40));
+    }
+
+    @Test
+    void integerPowersAndPowersOfTenAreExact() {
+        assertEquals(0, new BigDecimal("1267650600228229401496703205376")
+                .compareTo(BigMath.pow(BigDecimal.valueOf(2), BigDecimal.valueOf(100), MC40)));
+        assertEquals(0, new BigDecimal("0.125").compareTo(BigMath.pow(BigDecimal.valueOf(2), BigDecimal.valueOf(-3), MC40)));
+        assertEquals(BigDecimal.valueOf(3), BigMath.log10(new BigDecimal("1000"), MC40));
+        assertThrows(ArithmeticException.class, () -> BigMath.pow(BigDecimal.valueOf(-8), new BigDecimal("0.5"), MC40));
+    }
+
+    @Test
+    void powersPastTheExponentLimitAreRefused() {
+        ArithmeticException ex = assertThrows(ArithmeticException.class,
+                () -> BigMath.pow(BigDecimal.TEN, BigDecimal.valueOf(999_999_999), MC40));
+        assertEquals("Overflow", ex.getMessage());
+        ex = assertThrows(ArithmeticException.class,
+                () -> BigMath.pow(BigDecimal.TEN, BigDecimal.valueOf(-999_999_999), MC40));
+        assertEquals("Underflow", ex.getMessage());
+        assertThrows(ArithmeticException.class, () -> BigMath.pow(BigDecimal.TEN, new BigDecimal("10001.5"), MC40));
+        assertEquals(0, BigDecimal.ONE.scaleByPowerOfTen(BigMath.MAX_EXPONENT)
+                .compareTo(BigMath.pow(BigDecimal.TEN, BigDecimal.valueOf(BigMath.MAX_EXPONENT), MC40)));
+        assertEquals(BigDecimal.ONE, BigMath.pow(BigDecimal.ONE, BigDecimal.valueOf(999_999_999), MC40));
+    }
+
+    @Test
+    void trigKeepsFullPrecisionNearMultiplesOfPi() {
+        MathContext mc28 = new MathContext(28, RoundingMode.HALF_EVEN);
+        BigDecimal pi28 = BigMath.pi(mc28);
+        BigDecimal halfPi28 = pi28.divide(BigDecimal.valueOf(2), mc28);
+        assertRelative("2.795028841971693993751058210E-28", BigMath.sin(pi28, mc28));
+        assertRelative("-3.602485579014153003124470895E-28", BigMath.cos(halfPi28, mc28));
+        assertRelative("-2.775861216004249611331142063E+27", BigMath.tan(halfPi28, mc28));
+        BigDecimal pi40 = BigMath.pi(MC40);
+        assertRelative("1.693993751058209749445923078164062862090E-40", BigMath.sin(pi40, MC40));
+        assertRelative("5.846996875529104874722961539082031431045E-40",
+                BigMath.cos(pi40.divide(BigDecimal.valueOf(2), MC40), MC40));
+    }
+
+    /** Within two units in the last of the expected digits, however small the value. */
+    private static void assertRelative(String expected, BigDecimal actual) {
+        BigDecimal e = new BigDecimal(expected);
+        BigDecimal tolerance = BigDecimal.valueOf(2).scaleByPowerOfTen(e.precision() - e.scale() - e.precision());
+        assertTrue(e.subtract(actual).abs().compareTo(tolerance) <= 0,
+                () -> "expected " + expected + " but was " + actual);
+    }
+
+    @Test
+    void logarithmsKeepTheirDigitsNearOne() {
+        MathContext mc12 = new MathContext(12);
+        assertEquals(new BigDecimal("9.99999999995E-12"), BigMath.ln(new BigDecimal("1.00000000001"), mc12));
+        assertEquals(new BigDecimal("4.34294481901E-12"), BigMath.log10(new BigDecimal("1.00000000001"), mc12));
+        assertEquals(new BigDecimal("-1.00000000000E-12"), BigMath.ln(new BigDecimal("0.999999999999"), mc12));
+        assertEquals(new BigDecimal("9.99999999999995E-15"),
+                BigMath.ln(new BigDecimal("1.00000000000001"), new MathContext(15)));
+        BigDecimal nearOne = new BigDecimal("1.00000000001"), exponent = new BigDecimal("123456.5");
+        assertEquals(BigMath.pow(nearOne, exponent, MC40).round(mc12), BigMath.pow(nearOne, exponent, mc12));
+        // and past double precision
+        assertRelative("9.999999999995000000000003333333333330833E-13", BigMath.ln(new BigDecimal("1.000000000001"), MC40));
+        assertRelative("-1.000000000000500000000000333333333333584E-12", BigMath.ln(new BigDecimal("0.999999999999"), MC40));
+        assertRelative("4.342944819032496561787194026719433093799E-15",
+                BigMath.log10(new BigDecimal("1.00000000000001"), MC40));
+        assertEquals(new BigDecimal("1.000000000000000000000000000000000000000E-60"),
+                BigMath.ln(BigDecimal.ONE.add(BigDecimal.ONE.movePointLeft(60)), MC40).round(MC40));
+    }
+
+    @Test
+    void lowPrecisionUsesDoublePath() {
+        MathContext mc12 = new MathContext(12);
+        assertEquals(new BigDecimal("0.841470984808"), BigMath.sin(BigDecimal.ONE, mc12));
+        // operands and results outside the double range take the BigDecimal path instead
+        BigDecimal huge = new BigDecimal("2E+400");
+        assertEquals(new BigDecimal("400.301029996"), BigMath.log10(huge, mc12));
+        assertEquals(new BigDecimal("921.727184378"), BigMath.ln(huge, mc12));
+        assertEquals(new BigDecimal("-921.727184378"), BigMath.ln(new BigDecimal("5E-401"), mc12));
+        assertEquals(new BigDecimal("5.65685424949E+500"),
+                BigMath.pow(new BigDecimal("2E+200"), new BigDecimal("2.5"), mc12));
+        assertEquals(BigMath.sin(huge, MC40).round(mc12), BigMath.sin(huge, mc12));
+    }
+}
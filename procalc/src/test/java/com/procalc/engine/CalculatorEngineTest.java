@@ -0,0 +1,294 @@
+package com.procalc.engine;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CalculatorEngineTest {
+
+    private final CalculatorEngine engine = new CalculatorEngine(28, RoundingMode.HALF_UP);
+
+    private String eval(String expr) {
+        CalculatorEngine.EvalResult r = engine.evaluateExpression(expr);
+        return r.ok ? CalculatorEngine.format(r.value) : "ERROR: " + r.message;
+    }
+
+    @Test
+    void evaluatesArithmeticAndPostfixOperators() {
+        assertEquals("14", eval("2 + 3 * 4"));
+        assertEquals("-3", eval("-3"));
+        assertEquals("0.5", eval("50%"));
+        assertEquals("120", eval("5!"));
+        assertEquals("1.241018070217667823424840524E+309", eval("171!"));
+        assertEquals("factorial too large", engine.compile("171!").evaluateDouble().message);
+        assertEquals("8", eval("pow(2, 3)"));
+        assertEquals("ERROR: Overflow", eval("10^999999999"));
+        assertEquals("7", eval("3 × 4 ÷ 2 + 1"));
+    }
+
+    @Test
+    void reportsErrors() {
+        assertEquals("ERROR: Division by zero", eval("1/0"));
+        assertEquals("ERROR: Malformed expression", eval("2 + 3 *"));
+        assertEquals("ERROR: Mismatched parentheses", eval("(1+2"));
+        assertEquals("ERROR: sqrt domain error", eval("sqrt(0-4)"));
+        assertEquals("ERROR: factorial too large", eval("1001!"));
+    }
+
+    @Test
+    void compiledExpressionIsReusable() {
+        CompiledExpression c = engine.compile("(1.5 + 2) * 4 - 10 / 4");
+        BigDecimal first = c.evaluate().value;
+        for (int i = 0; i < 10; i++)
+            assertEquals(first, c.evaluate().value);
+        assertEquals(0, new BigDecimal("11.5").compareTo(first));
+    }
+
+    @Test
+    void evalRpnMatchesCompiledPath() {
+        String expr = "sin(pi/6) + ln(e) * 2^3";
+        var rpn = engine.toRPN(engine.tokenize(expr));
+        assertEquals(engine.evalRPN(rpn).value, engine.compile(expr).evaluate().value);
+    }
+
+    @Test
+    void evaluatesVariablesByPosition() {
+        CompiledExpression c = engine.compile("price * (1 + rate) - x1", java.util.List.of("price", "rate", "x1"));
+        assertEquals(java.util.List.of("price", "rate", "x1"), c.getVariables());
+        var r = c.evaluate(new BigDecimal[] { new BigDecimal("200"), new BigDecimal("0.5"), BigDecimal.ONE });
+        assertEquals(0, new BigDecimal("299").compareTo(r.value));
+        assertEquals("Unbound variable: price", c.evaluate().message);
+        assertThrows(IllegalArgumentException.class, () -> engine.compile("y + 1", java.util.List.of("x")));
+        assertThrows(IllegalArgumentException.class, () -> engine.compile("pi", java.util.List.of("pi")));
+    }
+
+    @Test
+    void doubleModeAgreesWithBigDecimalWithinTolerance() {
+        String[] exprs = {
+                "2 + 3 * 4", "(1.5 + 2) * 4 - 10 / 4", "sin(pi/6) + cos(pi/3)", "sqrt(2) * sqrt(2)",
+                "ln(e) + log(1000)", "pow(2, 0.5) ^ 2", "12!", "abs(0-7.25) * 50%", "tan(1) / 3", "1/3"
+        };
+        for (String expr : exprs) {
+            CompiledExpression c = engine.compile(expr);
+            double exact = c.evaluate().value.doubleValue();
+            var fast = c.evaluateDouble();
+            assertTrue(fast.ok, expr);
+            assertEquals(exact, fast.value.doubleValue(), Math.max(1e-12, Math.abs(exact) * 1e-12), expr);
+        }
+        assertEquals("Division by zero", engine.compile("1/0").evaluateDouble().message);
+        assertEquals("factorial requires integer", engine.compile("2.5!").evaluateDouble().message);
+    }
+
+    @Test
+    void handlesUnaryMinusInAnyOperandPosition() {
+        assertEquals("-4", eval("-2^2"));
+        assertEquals("-6", eval("2*-3"));
+        assertEquals("3", eval("--3"));
+        assertEquals("0.125", eval("pow(2,-3)"));
+        assertEquals("0.5", eval("2^-1"));
+        assertEquals("-120", eval("-5!"));
+        assertEquals(java.util.List.of("2", "*", "~", "3"), engine.tokenize("2 × -3"));
+        assertEquals(engine.evalRPN(engine.toRPN(engine.tokenize("-2^2 + 2*-3"))).value,
+                engine.compile("-2^2 + 2*-3").evaluate().value);
+    }
+
+    @Test
+    void lexerRecordsOffsetsAndErrorPositions() {
+        Lexer.Tokens t = engine.lex(" 12.5 + sin(x1)");
+        assertEquals(6, t.size());
+        assertEquals(Lexer.Kind.NUMBER, t.kind(0));
+        assertEquals(1, t.start(0));
+        assertEquals(5, t.end(0));
+        assertEquals(0, new BigDecimal("12.5").compareTo(t.number(0)));
+        assertTrue(t.identIs(2, "SIN"));
+        assertEquals("x1", t.text(4));
+
+        ParseException ex = assertThrows(ParseException.class, () -> engine.compile("1 + 2.3.4"));
+        assertEquals(4, ex.getPosition());
+        ex = assertThrows(ParseException.class, () -> engine.compile("2 * (3 + 4"));
+        assertEquals(4, ex.getPosition());
+        ex = assertThrows(ParseException.class, () -> engine.compile("2 + foo"));
+        assertEquals("Unknown token: foo", ex.getMessage());
+        assertEquals(4, ex.getPosition());
+    }
+
+    @Test
+    void costModelAndStepBudget() {
+        CompiledExpression c = engine.compile("((1+2)*3)");
+        assertEquals(2, c.depth());
+        assertEquals(3 + 1 + 2 + 2 * 4, c.cost()); // 3 PUSH, ADD, MUL, two levels of nesting
+        assertTrue(engine.compile("sin(1)").cost() > engine.compile("1+1").cost());
+
+        assertTrue(c.evaluate(new BigDecimal[0], c.cost()).ok);
+        assertEquals("Step budget exceeded", c.evaluate(new BigDecimal[0], c.cost() - 1).message);
+        // value-dependent work is charged while running
+        CompiledExpression pow = engine.compile("1^12345678901234");
+        assertEquals("Step budget exceeded", pow.evaluate(new BigDecimal[0], pow.cost() + 10).message);
+        // powers are charged by the size of their result, before it is computed
+        assertEquals("Step budget exceeded",
+                engine.compile("10^999999999").evaluate(new BigDecimal[0], 1_000_000).message);
+        // and a folded power keeps its charge in the optimized program's cost
+        CompiledExpression folded = engine.optimize(engine.compile("2^30000"), Long.MAX_VALUE);
+        assertEquals(1, folded.size());
+        assertTrue(folded.cost() > 9000, () -> "cost " + folded.cost());
+    }
+
+    @Test
+    void incrementalEvaluatorMatchesFullEvaluationWhileTyping() {
+        IncrementalEvaluator session = engine.incrementalEvaluator(Long.MAX_VALUE);
+        String target = "-2^2 + sin(pi/6)*3! - pow(2, 10)/4 + 12.5% + (1+2)*(3";
+        for (int i = 1; i <= target.length(); i++) {
+            String input = target.substring(0, i);
+            CalculatorEngine.EvalResult full = engine.evaluateExpression(input);
+            CalculatorEngine.EvalResult inc = session.evaluate(input);
+            if (full.ok)
+                assertEquals(0, full.value.compareTo(inc.value), input);
+            else
+                assertNull(inc, input);
+        }
+        // edits in the middle and deletions re-parse from the change
+        for (String input : new String[] { "1+22*3", "1+2*3", "10+2*3", "10+2*3!", "10+2" }) {
+            CalculatorEngine.EvalResult inc = session.evaluate(input);
+            assertEquals(0, engine.evaluateExpression(input).value.compareTo(inc.value), input);
+        }
+
+        StringBuilder sb = new StringBuilder("1");
+        for (int i = 0; i < 500; i++)
+            sb.append("+1");
+        session.evaluate(sb.toString());
+        CalculatorEngine.EvalResult r = session.evaluate(sb.append("+1").toString());
+        assertEquals("502", CalculatorEngine.format(r.value));
+        assertTrue(session.lexedTokens() <= 3, "lexed " + session.lexedTokens());
+    }
+
+    @Test
+    void validationReportsEveryProblemWithItsOffset() {
+        assertEquals(List.of(), CalculatorEngine.validate("-2^2 + sin 1 * pow(2, 3)! - 5%"));
+        assertEquals(List.of(
+                        new ExpressionError("Malformed expression", 4),
+                        new ExpressionError("Unknown character: $", 8),
+                        new ExpressionError("Missing operator", 10),
+                        new ExpressionError("Mismatched parentheses", 10),
+                        new ExpressionError("Missing operator", 13)),
+                CalculatorEngine.validate("2 + * 3 $ (4 5"));
+        assertEquals(List.of(new ExpressionError("pow requires 2 args", 0)), CalculatorEngine.validate("pow(2)"));
+        assertEquals(List.of(new ExpressionError("sqrt requires 1 arg", 2)), CalculatorEngine.validate("1+sqrt()"));
+        assertEquals(List.of(new ExpressionError("Misplaced comma", 2)), CalculatorEngine.validate("(1,2)"));
+        assertEquals(List.of(new ExpressionError("Unknown token: foo", 0),
+                new ExpressionError("Invalid number: 1.2.3", 4)), CalculatorEngine.validate("foo+1.2.3"));
+        assertEquals(List.of(new ExpressionError("Malformed expression", 0)), CalculatorEngine.validate(""));
+
+        // unknown characters are no longer skipped, and arity errors stop compilation
+        ParseException ex = assertThrows(ParseException.class, () -> engine.compile("2 $ 3"));
+        assertEquals(2, ex.getPosition());
+        ex = assertThrows(ParseException.class, () -> engine.compile("1 sin"));
+        assertEquals("Missing operator", ex.getMessage());
+        assertEquals(2, ex.getPosition());
+        assertEquals(4, engine.evaluateExpression("1 + ").position);
+    }
+
+    @Test
+    void validInputNeverFailsStructurallyAndPreviewAgrees() {
+        String[] parts = { "1", "2", "0.5", "pi", "+", "-", "*", "/", "^", "(", ")", ",", "%", "!", "sin", "pow", " " };
+        Random random = new Random(42);
+        IncrementalEvaluator session = engine.incrementalEvaluator(Long.MAX_VALUE);
+        for (int n = 0; n < 20_000; n++) {
+            StringBuilder sb = new StringBuilder();
+            for (int i = random.nextInt(8); i >= 0; i--)
+                sb.append(parts[random.nextInt(parts.length)]);
+            String input = sb.toString();
+            CalculatorEngine.EvalResult full = engine.evaluateExpression(input);
+            if (CalculatorEngine.validate(input).isEmpty())
+                assertTrue(full.ok || !full.message.matches("Malformed.*|.* args?|Percent.*"), input);
+            CalculatorEngine.EvalResult inc = session.evaluate(input);
+            if (full.ok)
+                assertEquals(0, full.value.compareTo(inc.value), input);
+            else
+                assertNull(inc, input);
+        }
+    }
+
+    @Test
+    void previewSessionsStopAtTheirLimitsBeforeApplyingOps() {
+        IncrementalEvaluator session = engine.incrementalEvaluator(1_000, 3);
+        assertNotNull(session.evaluate("(((1+2)))"));
+        assertNull(session.evaluate("((((1+2))))"));
+        assertNull(session.evaluate("sin(1)+sin(2)+sin(3)+sin(4)+sin(5)+sin(6)+sin(7)+sin(8)+sin(9)+sin(10)"));
+        assertNotNull(session.evaluate("sin(1)+sin(2)"));
+        // value-dependent work counts too: the power is refused before it is computed
+        assertNull(session.evaluate("2^100000"));
+    }
+
+    @Test
+    void enginesAreSharedPerContext() {
+        MathContext mc = new MathContext(50, RoundingMode.HALF_EVEN);
+        CalculatorEngine shared = CalculatorEngine.of(mc);
+        assertSame(shared, CalculatorEngine.of(new MathContext(50, RoundingMode.HALF_EVEN)));
+        assertNotSame(shared, CalculatorEngine.of(new MathContext(50, RoundingMode.HALF_UP)));
+        assertEquals(mc, shared.getMathContext());
+        assertEquals("3.1415926535897932384626433832795028841971693993751",
+                shared.evaluateExpression("pi").value.toPlainString());
+        assertEquals("0.33", CalculatorEngine.of(new MathContext(2, RoundingMode.HALF_UP))
+                .evaluateExpression("1/3").value.toPlainString());
+    }
+
+    @Test
+    void literalPoolsKeepTheMostRecentlyUsedContexts() {
+        MathContext hot = new MathContext(17, RoundingMode.CEILING);
+        Literals kept = Literals.of(hot);
+        Literals oldest = Literals.of(new MathContext(100, RoundingMode.DOWN));
+        for (int p = 101; p < 100 + 2 * Literals.MAX_CONTEXTS; p++) {
+            Literals.of(new MathContext(p, RoundingMode.DOWN));
+            assertSame(kept, Literals.of(hot)); // in use, so never the one evicted
+        }
+        assertTrue(Literals.cachedContexts() <= Literals.MAX_CONTEXTS);
+        assertNotSame(oldest, Literals.of(new MathContext(100, RoundingMode.DOWN)));
+        MathContext newest = new MathContext(99 + 2 * Literals.MAX_CONTEXTS, RoundingMode.DOWN);
+        assertSame(Literals.of(newest), Literals.of(newest));
+    }
+
+    @Test
+    void sharedEnginesKeepTheMostRecentlyUsedContexts() {
+        MathContext hot = new MathContext(19, RoundingMode.CEILING);
+        CalculatorEngine kept = CalculatorEngine.of(hot);
+        for (int p = 300; p < 300 + 2 * CalculatorEngine.MAX_SHARED; p++) {
+            CalculatorEngine other = CalculatorEngine.of(new MathContext(p, RoundingMode.UP));
+            assertSame(other, CalculatorEngine.of(other.getMathContext()));
+            assertSame(kept, CalculatorEngine.of(hot));
+        }
+        assertTrue(CalculatorEngine.sharedContexts() <= CalculatorEngine.MAX_SHARED);
+        CalculatorEngine.EvalResult r = CalculatorEngine.of(new MathContext(300, RoundingMode.UP)).evaluateExpression("1.5*2");
+        assertEquals(0, BigDecimal.valueOf(3).compareTo(r.value));
+    }
+
+    @Test
+    void optimizerFoldsSharesAndSimplifiesWithoutChangingResults() {
+        List<String> x = List.of("x");
+        CompiledExpression squares = engine.optimize(engine.compile("sin(x)*sin(x)", x), Long.MAX_VALUE);
+        assertEquals(5, squares.size()); // LOAD SIN STORE TEMP MUL
+        assertEquals(3, engine.optimize(engine.compile("2*pi*x", x), Long.MAX_VALUE).size());
+        assertEquals(2, engine.optimize(engine.compile("--sqrt(x)*1/1", x), Long.MAX_VALUE).size());
+        // x itself may carry more digits than the context, so x*1 still rounds it
+        assertEquals(3, engine.optimize(engine.compile("x*1", x), Long.MAX_VALUE).size());
+        assertEquals("Division by zero",
+                engine.optimize(engine.compile("x + 1/0", x), Long.MAX_VALUE).evaluate(new BigDecimal[] { BigDecimal.ONE }).message);
+
+        BigDecimal[] at = { new BigDecimal("0.7") };
+        for (String expr : new String[] { "sin(x)*sin(x) + cos(x)*cos(x)", "(x+1)/(x+1)^2 + (x+1)*2",
+                "2*pi*x + pi*x^2 + sqrt(2)*ln(10)", "(x^2+1)*(x^2+1) - (x^2+1)", "10^3 + 0*x + 1234567890123456789012345678*10*1", "-(-(x*2))*1.0",
+                "pow(x, 1) + (x/1)^1 + 5!/3%" }) {
+            CompiledExpression raw = engine.compile(expr, x);
+            CompiledExpression opt = engine.optimize(raw, Long.MAX_VALUE);
+            assertTrue(opt.size() <= raw.size(), expr);
+            assertEquals(raw.evaluate(at).value.toPlainString(), opt.evaluate(at).value.toPlainString(), expr);
+            assertEquals(raw.evaluateDouble(new double[] { 0.7 }).value.doubleValue(),
+                    opt.evaluateDouble(new double[] { 0.7 }).value.doubleValue(), 1e-12, expr);
+        }
+    }
+}
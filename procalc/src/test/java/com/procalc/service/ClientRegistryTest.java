@@ -0,0 +1,32 @@
+package com.procalc.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ClientRegistryTest {
+
+    @Test
+    void evictsTheOldestTenthWhenTheCapIsPassed() {
+        AtomicInteger created = new AtomicInteger();
+        ClientRegistry<Integer> registry = new ClientRegistry<>(created::incrementAndGet, 100, 60_000);
+        for (int i = 0; i < 100; i++)
+            registry.get("c" + i);
+        registry.get("c0"); // recently used again
+        assertEquals(100, registry.size());
+
+        registry.get("new");
+        assertTrue(registry.size() <= 91 && registry.size() >= 80, () -> "size " + registry.size());
+        assertNotNull(registry.peek("c0"));
+        assertNotNull(registry.peek("new"));
+        assertNull(registry.peek("c1"));
+        // the room made serves the next clients without another sweep
+        int before = registry.size();
+        for (int i = 0; i < 100 - before; i++)
+            registry.get("more" + i);
+        assertEquals(100, registry.size());
+        assertEquals(101 + 100 - before, created.get());
+    }
+}
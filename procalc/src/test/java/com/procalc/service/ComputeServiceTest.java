@@ -0,0 +1,55 @@
+package com.procalc.service;
+
+import com.procalc.engine.CalculatorEngine.Mode;
+import com.procalc.exception.OverloadedException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ComputeServiceTest {
+
+    @Test
+    void evaluatesOnComputePool() {
+        ComputeService compute = new ComputeService(new EngineService(), new SimpleMeterRegistry(), 2, 8, 5000, 1000, 0);
+        assertEquals("14", compute.evaluate("2+3*4", Mode.BIGDECIMAL).getFormatted());
+        assertEquals("Division by zero", compute.preview("c", "1/0", Mode.BIGDECIMAL).getMessage());
+        compute.shutdown();
+    }
+
+    @Test
+    void failsFastWhenFull() {
+        ComputeService compute = new ComputeService(new EngineService(), new SimpleMeterRegistry(), 1, 0, 5000, 1000, 0);
+        assertThrows(OverloadedException.class, () -> compute.evaluate("1+1", Mode.BIGDECIMAL));
+        compute.shutdown();
+    }
+
+    @Test
+    void everyPathDrawsOnTheSamePermits() throws Exception {
+        ComputeService compute = new ComputeService(new EngineService(), new SimpleMeterRegistry(), 1, 4, 5000, 1000, 32);
+        assertEquals(1, compute.chunks(100)); // a quarter of max-pending
+        ComputeService.Permit held = compute.admit();
+        List<Future<?>> done = compute.submitAll(List.of(() -> { }, () -> { }, () -> { }));
+        for (Future<?> f : done)
+            f.get();
+        try (ComputeService.Permit a = compute.admit(); ComputeService.Permit b = compute.admit();
+                ComputeService.Permit c = compute.admit()) {
+            // all four taken: inline evaluations and bulk work are shed too
+            assertThrows(OverloadedException.class, () -> compute.evaluate("1+1", Mode.BIGDECIMAL));
+            assertThrows(OverloadedException.class, () -> compute.submitAll(List.of(() -> { })));
+            assertThrows(OverloadedException.class, compute::admit);
+        }
+        held.close();
+        held.close(); // released once: four permits again, not five
+        try (ComputeService.Permit a = compute.admit(); ComputeService.Permit b = compute.admit();
+                ComputeService.Permit c = compute.admit(); ComputeService.Permit d = compute.admit()) {
+            assertThrows(OverloadedException.class, compute::admit);
+        }
+        assertEquals("2", compute.evaluate("1+1", Mode.BIGDECIMAL).getFormatted());
+        compute.submitAll(List.of(() -> { }, () -> { }, () -> { }, () -> { })).get(3).get();
+        compute.shutdown();
+    }
+}
@@ -0,0 +1,31 @@
+package com.procalc.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EngineMetricsTest {
+
+    @Test
+    void errorsAreCountedUnderAFixedSetOfTypes() {
+        assertEquals("syntax", EngineMetrics.errorType("Unknown token: foo"));
+        assertEquals("syntax", EngineMetrics.errorType("Mismatched parentheses"));
+        assertEquals("domain", EngineMetrics.errorType("Division by zero"));
+        assertEquals("domain", EngineMetrics.errorType("sqrt domain error"));
+        assertEquals("overflow", EngineMetrics.errorType("Overflow"));
+        assertEquals("overflow", EngineMetrics.errorType("factorial too large"));
+        assertEquals("budget", EngineMetrics.errorType("Step budget exceeded"));
+        assertEquals("budget", EngineMetrics.errorType("Expression too long"));
+        assertEquals("internal", EngineMetrics.errorType("Rounding necessary"));
+        assertEquals("internal", EngineMetrics.errorType(null));
+
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        EngineMetrics metrics = new EngineMetrics(registry);
+        metrics.error("Unknown token: a");
+        metrics.error("Unknown token: b");
+        metrics.error("Unknown character: #");
+        assertEquals(EngineMetrics.ERROR_TYPES.size(), registry.find("procalc.eval.errors").counters().size());
+        assertEquals(3, registry.get("procalc.eval.errors").tag("type", "syntax").counter().count());
+    }
+}
@@ -0,0 +1,64 @@
+package com.procalc.service;
+
+import com.procalc.dto.EvaluateResponse;
+import com.procalc.dto.ResponseShape;
+import com.procalc.engine.CalculatorEngine.Mode;
+import org.junit.jupiter.api.Test;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import java.math.MathContext;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EngineServiceTest {
+
+    @Test
+    void inputTheLexerRejectedNeverSharesACacheEntry() {
+        EngineService valid = new EngineService();
+        assertEquals("5", valid.evaluate("2+3").getResult());
+        EvaluateResponse r = valid.evaluate("2$+3");
+        assertEquals("ERROR", r.getStatus());
+        assertEquals(1, r.getPosition());
+
+        EngineService rejected = new EngineService();
+        assertEquals("ERROR", rejected.evaluate("2$+3").getStatus());
+        assertEquals("5", rejected.evaluate("2+3").getResult());
+    }
+
+    @Test
+    void cachedErrorPositionsFollowEachInputsWhitespace() {
+        EngineService service = new EngineService();
+        assertEquals(0, service.evaluate("(1+").getPosition());
+        assertEquals(3, service.evaluate("   (1+").getPosition());
+        assertEquals(4, service.evaluate("1 + (2").getPosition());
+        assertEquals(2, service.evaluate("1+(2").getPosition());
+        assertEquals(4, service.evaluate("2 + foo").getPosition());
+        assertEquals(2, service.evaluate("2+foo").getPosition());
+    }
+
+    @Test
+    void highPrecisionWorkIsChargedByPrecision() {
+        EngineService service = new EngineService();
+        StringBuilder chain = new StringBuilder("0");
+        for (int i = 1; i <= 200; i++)
+            chain.append("+sin(").append(i).append(".5)");
+        String expr = chain.toString();
+        assertEquals("OK", service.evaluate(expr).getStatus());
+        EvaluateResponse r = service.evaluate(expr, Mode.BIGDECIMAL, ResponseShape.FULL, new MathContext(1000));
+        assertEquals(EngineService.TOO_COMPLEX_MESSAGE, r.getMessage());
+        // one function at the highest precision still fits
+        r = service.evaluate("sin(1.5)", Mode.BIGDECIMAL, ResponseShape.FULL, new MathContext(1000));
+        assertEquals("OK", r.getStatus());
+    }
+
+    @Test
+    void foldingSpendsNoMoreThanTheCostLimit() {
+        EngineService service = new EngineService(100, 1 << 20, 0, 10_000, 100, 5_000, 1_000_000, true, 1000,
+                new SimpleMeterRegistry());
+        // folding 2^30000 would cost over 9000 steps, so it is left to run under the step budget
+        assertEquals("OK", service.evaluate("2^30000").getStatus());
+        assertEquals(3, service.compile("2^3+x", List.of("x")).size()); // 2^3 folded: PUSH LOAD ADD
+    }
+}
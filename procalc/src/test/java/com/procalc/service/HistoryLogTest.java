@@ -0,0 +1,85 @@
+package com.procalc.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HistoryLogTest {
+
+    @TempDir
+    Path dir;
+
+    private HistoryService history() throws IOException {
+        return new HistoryService(new SimpleMeterRegistry(), 3, 100, 60_000, dir.toString(), 4096, 4, 1024);
+    }
+
+    @Test
+    void historySurvivesRestart() throws IOException {
+        HistoryService first = history();
+        first.add("a", "1+1", "2");
+        first.add("a", "2+2", "4");
+        first.add("b", "3+3", "6");
+        first.clear("b");
+        first.add("b", "4+4", "8");
+        first.close();
+
+        HistoryService second = history();
+        List<HistoryService.HistoryEntry> a = second.list("a", null, 10, null, null, null).items();
+        assertEquals(List.of("2+2", "1+1"), a.stream().map(e -> e.expression).toList());
+        List<HistoryService.HistoryEntry> b = second.list("b", null, 10, null, null, null).items();
+        assertEquals(List.of("4+4"), b.stream().map(e -> e.expression).toList());
+        second.close();
+    }
+
+    @Test
+    void compactionKeepsLastEntriesPerClient() throws IOException {
+        HistoryLog log = new HistoryLog(dir, 256, 100, 3, 1024, new SimpleMeterRegistry());
+        log.open(replayInto(new ArrayList<>()));
+        for (int i = 0; i < 50; i++)
+            log.append(i % 2 == 0 ? "even" : "odd", "n" + i, Integer.toString(i), Instant.ofEpochMilli(i));
+        log.close();
+        long before = segmentCount();
+        assertTrue(before > 2);
+
+        HistoryLog reopened = new HistoryLog(dir, 256, 100, 3, 1024, new SimpleMeterRegistry());
+        reopened.open(replayInto(new ArrayList<>()));
+        reopened.compact();
+        reopened.close();
+        assertTrue(segmentCount() < before);
+
+        List<String> replayed = new ArrayList<>();
+        HistoryLog after = new HistoryLog(dir, 256, 100, 3, 1024, new SimpleMeterRegistry());
+        after.open(replayInto(replayed));
+        after.close();
+        assertEquals(List.of("n44", "n45", "n46", "n47", "n48", "n49"), replayed);
+    }
+
+    private long segmentCount() throws IOException {
+        try (var files = Files.list(dir)) {
+            return files.filter(p -> p.toString().endsWith(".log")).count();
+        }
+    }
+
+    private static HistoryLog.Replay replayInto(List<String> out) {
+        return new HistoryLog.Replay() {
+            @Override
+            public void entry(String clientId, String expression, String result, Instant timestamp) {
+                out.add(expression);
+            }
+
+            @Override
+            public void clear(String clientId) {
+                out.clear();
+            }
+        };
+    }
+}
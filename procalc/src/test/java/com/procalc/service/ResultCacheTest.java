@@ -0,0 +1,51 @@
+package com.procalc.service;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ResultCacheTest {
+
+    @Test
+    void countsHitsMissesAndEvictions() {
+        // 16 segments x 1 entry each
+        ResultCache<String> cache = new ResultCache<>(16, 1 << 20, 0, v -> v.length());
+        assertNull(cache.get("a"));
+        cache.put("a", "1");
+        assertEquals("1", cache.get("a"));
+        for (int i = 0; i < 100; i++)
+            cache.put("k" + i, "v");
+        assertTrue(cache.size() <= 16);
+        assertEquals(1, cache.hitCount());
+        assertEquals(1, cache.missCount());
+        assertTrue(cache.evictionCount() > 0);
+    }
+
+    @Test
+    void respectsMemoryLimit() {
+        ResultCache<String> cache = new ResultCache<>(10_000, 16 * 1024, 0, v -> 2L * v.length());
+        String big = "x".repeat(200);
+        for (int i = 0; i < 1000; i++)
+            cache.put("k" + i, big);
+        assertTrue(cache.weightBytes() <= 16 * 1024);
+    }
+
+    @Test
+    void expiresEntriesAfterTtl() throws InterruptedException {
+        ResultCache<String> cache = new ResultCache<>(100, 1 << 20, 1, v -> 0);
+        cache.put("a", "1");
+        Thread.sleep(5);
+        assertNull(cache.get("a"));
+        assertEquals(1, cache.evictionCount());
+    }
+
+    @Test
+    void engineServiceSharesEntryAcrossSpellings() {
+        EngineService service = new EngineService();
+        assertEquals("12", service.evaluate("3×4").getFormatted());
+        var r = service.evaluate("3 * 4");
+        assertEquals("3 * 4", r.getExpression());
+        assertEquals("12", r.getFormatted());
+        assertEquals(1L, service.cacheStats().get("hits"));
+    }
+}